@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.concurrent.Executor;
+
+// Server-side setup and operations for the JMH benchmarks.
+//
+// The server lives in the default package, which code in a named package
+// cannot refer to, and JMH refuses benchmarks in the default package. So this
+// class sits in the default package next to the server's classes and exposes
+// static methods whose signatures only use JDK types; the benchmarks call
+// them through constant method handles (organizeme.bench.Fixtures), which
+// the JIT inlines like a direct call.
+public final class BenchmarkFixtures {
+    // Runs a room's work on the calling thread, so fan-out is measured
+    // without the hand-off to a room worker
+    private static final Executor INLINE = Runnable::run;
+
+    // Rate limits off, so dispatch is measured rather than throttling
+    static {
+        ProjectServer.setConfigForTesting(ServerConfig.fromArgs(new String[] { "--client-rate=0", "--room-rate=0" }));
+    }
+
+    private static int roomCount;
+
+    // A client whose writer keeps up perfectly: each event is encoded for
+    // the wire and discarded as soon as it is queued
+    static final class MemoryConnection extends ProjectConnection {
+        long bytesOut;
+
+        @Override
+        protected void messageQueued() {
+            ServerEvent event = outbound.poll();
+            if (event != null) {
+                bytesOut += encode(event).length;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private BenchmarkFixtures() {
+    }
+
+    // Rooms and connections
+
+    // An in-memory room (no journal) with the given number of logged-in
+    // members; returns the ProjectRoom
+    public static Object room(int members) throws IOException {
+        ProjectRoom room = ProjectRoom.open("bench-" + (++roomCount), INLINE, null, ProjectServer.getConfig());
+        for (int i = 0; i < members; i++) {
+            join(room, "user-" + i);
+        }
+        return room;
+    }
+
+    // A logged-in connection in a room of the given size (itself included)
+    public static Object connection(int roomMembers) throws IOException {
+        ProjectRoom room = (ProjectRoom) room(roomMembers - 1);
+        return join(room, "sender");
+    }
+
+    private static MemoryConnection join(ProjectRoom room, String username) {
+        MemoryConnection connection = new MemoryConnection();
+        connection.setRoomForTesting(room);
+        connection.setUsername(username);
+        room.join(connection);
+        return connection;
+    }
+
+    // Adds a task through the connection's room and returns its id. The
+    // room has no journal, so the task is acknowledged before this returns.
+    public static int addTask(Object connection, String title) {
+        ProjectConnection client = (ProjectConnection) connection;
+        int[] taskId = new int[1];
+        client.getRoom().addTask(title, "", client.getUsername(), id -> taskId[0] = id);
+        return taskId[0];
+    }
+
+    // Command dispatch
+
+    public static void handleLine(Object connection, String line) {
+        ((ProjectConnection) connection).handleLine(line);
+    }
+
+    // The buffer holds one whole frame, length prefix included, and is
+    // rewound on every call
+    public static void handleFrame(Object connection, ByteBuffer frame) {
+        frame.clear();
+        int length = WireProtocol.peekFrame(frame);
+        frame.limit(frame.position() + length);
+        ((ProjectConnection) connection).handleFrame(frame);
+    }
+
+    public static byte[] chatFrame(String text) {
+        return new WireProtocol.FrameBuilder(WireProtocol.CMD_MESSAGE).string(text).finish();
+    }
+
+    // Fan-out
+
+    public static void broadcastChat(Object room, String sender, String text) {
+        ((ProjectRoom) room).broadcast(ServerEvent.message(sender, text));
+    }
+
+    // TASK_ADDED encoding and decoding
+
+    public static Object task(int id, String title, String description, String assignedBy) {
+        return new ProjectTask(id, title, description, assignedBy);
+    }
+
+    // A fresh event each time, so the cached encoding is not reused
+    public static byte[] taskAddedText(Object task) {
+        return ServerEvent.taskAdded((ProjectTask) task).textBytes();
+    }
+
+    public static byte[] taskAddedFrame(Object task) {
+        return ServerEvent.taskAdded((ProjectTask) task).frameBytes();
+    }
+
+    // The client's text parsing, as in ProjectController.handleTaskAdded.
+    // Returns a value derived from every field so none of it is dead code.
+    public static int parseTaskAddedText(String line) {
+        String[] parts = line.substring(11).split("\\|");
+        if (parts.length < 5) {
+            return -1;
+        }
+        int taskId = Integer.parseInt(parts[0]);
+        String title = parts[1];
+        String description = parts[2];
+        String assignedBy = parts[3];
+        String status = parts[4];
+        String completedBy = parts.length > 5 ? parts[5] : "";
+        return taskId + title.length() + description.length() + assignedBy.length() + status.length()
+                + completedBy.length();
+    }
+
+    // The client's frame decoding, as in ProjectController.handleServerFrame
+    public static int parseTaskAddedFrame(ByteBuffer frame) {
+        frame.clear();
+        int length = WireProtocol.peekFrame(frame);
+        frame.limit(frame.position() + length);
+        frame.get(); // type
+        int taskId = WireProtocol.readVarint(frame);
+        String title = WireProtocol.readString(frame);
+        String description = WireProtocol.readString(frame);
+        String assignedBy = WireProtocol.readString(frame);
+        String status = TaskStatus.values()[WireProtocol.readVarint(frame)].name();
+        String completedBy = WireProtocol.readString(frame);
+        long seq = WireProtocol.readVarlong(frame);
+        return taskId + title.length() + description.length() + assignedBy.length() + status.length()
+                + completedBy.length() + (int) seq;
+    }
+
+    // TodoTask persistence
+
+    public static Object todoTask(String title) {
+        return new TodoTask(title, LocalDate.of(2026, 10, 18), LocalTime.of(9, 30), TodoTask.Priority.HIGH,
+                TodoTask.RecurringType.WEEKLY);
+    }
+
+    public static String todoToFileString(Object task) {
+        return ((TodoTask) task).toFileString();
+    }
+
+    public static Object todoFromFileString(String line) {
+        return TodoTask.fromFileString(line);
+    }
+}
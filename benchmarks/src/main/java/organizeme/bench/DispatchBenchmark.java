@@ -0,0 +1,66 @@
+package organizeme.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// A logged-in connection handling one command, from the raw line or frame
+// to the resulting events queued and encoded for the room. The sender is
+// alone in its room, so fan-out adds as little as possible.
+//
+// ADD_TASK is left out: every call would grow the board for the rest of the
+// run. COMPLETE_TASK targets a task that is already done, which covers the
+// parse and store lookup without changing anything.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final MethodHandle CONNECTION = Fixtures.find("connection", Object.class, int.class);
+    private static final MethodHandle ADD_TASK = Fixtures.find("addTask", int.class, Object.class, String.class);
+    private static final MethodHandle HANDLE_LINE = Fixtures.find("handleLine", void.class, Object.class, String.class);
+    private static final MethodHandle HANDLE_FRAME =
+            Fixtures.find("handleFrame", void.class, Object.class, ByteBuffer.class);
+    private static final MethodHandle CHAT_FRAME = Fixtures.find("chatFrame", byte[].class, String.class);
+
+    private Object connection;
+    private String completeLine;
+    private ByteBuffer chatFrame;
+
+    @Setup
+    public void setUp() throws Throwable {
+        connection = (Object) CONNECTION.invokeExact(1);
+        int taskId = (int) ADD_TASK.invokeExact(connection, "Write the release notes");
+        completeLine = "COMPLETE_TASK:" + taskId;
+        HANDLE_LINE.invokeExact(connection, completeLine);
+        chatFrame = ByteBuffer.wrap((byte[]) CHAT_FRAME.invokeExact("Pushed the fix, please pull"));
+    }
+
+    @Benchmark
+    public void textChat() throws Throwable {
+        HANDLE_LINE.invokeExact(connection, "MESSAGE:Pushed the fix, please pull");
+    }
+
+    @Benchmark
+    public void textCompleteTask() throws Throwable {
+        HANDLE_LINE.invokeExact(connection, completeLine);
+    }
+
+    @Benchmark
+    public void binaryChat() throws Throwable {
+        HANDLE_FRAME.invokeExact(connection, chatFrame);
+    }
+}
@@ -0,0 +1,45 @@
+package organizeme.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One chat message broadcast to a room of in-memory clients: queueing it for
+// every member and encoding it once per member, as their writers would
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    private static final MethodHandle ROOM = Fixtures.find("room", Object.class, int.class);
+    private static final MethodHandle BROADCAST_CHAT =
+            Fixtures.find("broadcastChat", void.class, Object.class, String.class, String.class);
+
+    @Param({ "10", "100", "1000" })
+    public int members;
+
+    private Object room;
+
+    @Setup
+    public void setUp() throws Throwable {
+        room = (Object) ROOM.invokeExact(members);
+    }
+
+    @Benchmark
+    public void broadcastChat() throws Throwable {
+        BROADCAST_CHAT.invokeExact(room, "alice", "Stand-up in five minutes");
+    }
+}
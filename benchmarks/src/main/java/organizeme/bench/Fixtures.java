@@ -0,0 +1,30 @@
+package organizeme.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// Looks up the default-package BenchmarkFixtures methods. Benchmarks keep
+// the handles in static final fields and call them with invokeExact, so the
+// JIT treats each one as a constant and inlines straight through it.
+final class Fixtures {
+    private static final Class<?> FIXTURES;
+    static {
+        try {
+            FIXTURES = Class.forName("BenchmarkFixtures");
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Fixtures() {
+    }
+
+    static MethodHandle find(String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return MethodHandles.publicLookup().findStatic(FIXTURES, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing fixture " + name, e);
+        }
+    }
+}
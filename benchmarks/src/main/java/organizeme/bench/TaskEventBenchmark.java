@@ -0,0 +1,68 @@
+package organizeme.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// TASK_ADDED in both dialects: the server building the wire form of a new
+// event, and the client taking it apart again
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskEventBenchmark {
+    private static final MethodHandle TASK =
+            Fixtures.find("task", Object.class, int.class, String.class, String.class, String.class);
+    private static final MethodHandle TEXT = Fixtures.find("taskAddedText", byte[].class, Object.class);
+    private static final MethodHandle FRAME = Fixtures.find("taskAddedFrame", byte[].class, Object.class);
+    private static final MethodHandle PARSE_TEXT = Fixtures.find("parseTaskAddedText", int.class, String.class);
+    private static final MethodHandle PARSE_FRAME = Fixtures.find("parseTaskAddedFrame", int.class, ByteBuffer.class);
+
+    private Object task;
+    private String textLine;
+    private ByteBuffer frame;
+
+    @Setup
+    public void setUp() throws Throwable {
+        task = (Object) TASK.invokeExact(4217, "Review the sprint board",
+                "Check every open card has an owner and an estimate", "alice");
+        byte[] text = (byte[]) TEXT.invokeExact(task);
+        // One line, without its newline, as the client's reader returns it
+        textLine = new String(text, 0, text.length - 1, StandardCharsets.UTF_8);
+        frame = ByteBuffer.wrap((byte[]) FRAME.invokeExact(task));
+    }
+
+    @Benchmark
+    public byte[] buildText() throws Throwable {
+        return (byte[]) TEXT.invokeExact(task);
+    }
+
+    @Benchmark
+    public byte[] buildFrame() throws Throwable {
+        return (byte[]) FRAME.invokeExact(task);
+    }
+
+    @Benchmark
+    public int parseText() throws Throwable {
+        return (int) PARSE_TEXT.invokeExact(textLine);
+    }
+
+    @Benchmark
+    public int parseFrame() throws Throwable {
+        return (int) PARSE_FRAME.invokeExact(frame);
+    }
+}
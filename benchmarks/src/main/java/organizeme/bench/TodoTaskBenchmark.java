@@ -0,0 +1,47 @@
+package organizeme.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One line of the personal to-do file, written and read back
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TodoTaskBenchmark {
+    private static final MethodHandle TODO_TASK = Fixtures.find("todoTask", Object.class, String.class);
+    private static final MethodHandle TO_FILE_STRING = Fixtures.find("todoToFileString", String.class, Object.class);
+    private static final MethodHandle FROM_FILE_STRING = Fixtures.find("todoFromFileString", Object.class, String.class);
+
+    private Object task;
+    private String line;
+
+    @Setup
+    public void setUp() throws Throwable {
+        task = (Object) TODO_TASK.invokeExact("Submit the expense report");
+        line = (String) TO_FILE_STRING.invokeExact(task);
+    }
+
+    @Benchmark
+    public String toFileString() throws Throwable {
+        return (String) TO_FILE_STRING.invokeExact(task);
+    }
+
+    @Benchmark
+    public Object fromFileString() throws Throwable {
+        return (Object) FROM_FILE_STRING.invokeExact(line);
+    }
+}
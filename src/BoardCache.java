@@ -0,0 +1,149 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// The app's last view of a shared project, kept on disk so "Work Together"
+// can show it before the server has sent anything.
+//
+// One file per server and project (project-cache/<server>/<project>.dat),
+// holding the board, the tail of the chat and the sync epoch and sequence
+// the board is current to. On connect the app resumes from that sequence,
+// so the server sends only what changed since; if it no longer can (it
+// restarted, or the app was away too long), it sends SYNC_RESET and the
+// whole board, and the cached copy is replaced.
+// A file is written to a temporary name and moved into place, so a crash
+// never leaves half a cache behind.
+public final class BoardCache {
+    private static final int MAGIC = 0x4F4D4243; // "OMBC"
+    private static final int VERSION = 1;
+    private static final Path DIRECTORY = Paths.get("project-cache");
+    // Nothing the server sends is longer, so anything past this is damage
+    private static final int MAX_STRING_LENGTH = WireProtocol.MAX_FRAME_LENGTH;
+
+    public record ChatEntry(String text, String styleClass, String time) {}
+
+    // epoch is -1 if the board is not known to be current to any sequence
+    public record Snapshot(long epoch, long seq, Collection<ProjectTask> tasks, List<ChatEntry> chat) {}
+
+    private BoardCache() {
+    }
+
+    // The cached view, or null if there is none or it cannot be read
+    public static Snapshot load(String server, String room) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(fileFor(server, room))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long epoch = in.readLong();
+            long seq = in.readLong();
+
+            int taskCount = readCount(in);
+            List<ProjectTask> tasks = new ArrayList<>(taskCount);
+            for (int i = 0; i < taskCount; i++) {
+                int id = in.readInt();
+                String title = readString(in);
+                String description = readString(in);
+                String assignedBy = readString(in);
+                TaskStatus status = TaskStatus.values()[in.readByte()];
+                String completedBy = readString(in);
+                ProjectTask task = new ProjectTask(id, title, description, assignedBy);
+                if (status == TaskStatus.COMPLETED) {
+                    task.complete(completedBy, null);
+                }
+                tasks.add(task);
+            }
+
+            int chatCount = readCount(in);
+            List<ChatEntry> chat = new ArrayList<>(chatCount);
+            for (int i = 0; i < chatCount; i++) {
+                chat.add(new ChatEntry(readString(in), readString(in), readString(in)));
+            }
+            return new Snapshot(epoch, seq, tasks, chat);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable project cache: " + e);
+            return null;
+        }
+    }
+
+    public static void save(String server, String room, Snapshot snapshot) throws IOException {
+        Path file = fileFor(server, room);
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(snapshot.epoch());
+            out.writeLong(snapshot.seq());
+
+            out.writeInt(snapshot.tasks().size());
+            for (ProjectTask task : snapshot.tasks()) {
+                out.writeInt(task.getId());
+                writeString(out, task.getTitle());
+                writeString(out, task.getDescription());
+                writeString(out, task.getAssignedBy());
+                out.writeByte(task.getStatus().ordinal());
+                writeString(out, task.getCompletedBy());
+            }
+
+            out.writeInt(snapshot.chat().size());
+            for (ChatEntry entry : snapshot.chat()) {
+                writeString(out, entry.text());
+                writeString(out, entry.styleClass());
+                writeString(out, entry.time());
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Both names are cut down to letters, digits, - and _, so neither can
+    // step outside the cache directory whatever was typed
+    private static Path fileFor(String server, String room) {
+        return DIRECTORY.resolve(safeName(server)).resolve(safeName(room) + ".dat");
+    }
+
+    private static String safeName(String name) {
+        return name.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    // Unlike writeUTF, not limited to 64 KB
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Lengths and counts are checked before anything is allocated for them,
+    // so a damaged file is ignored rather than stopping the app. available()
+    // on a file stream is what is left of the file, and every entry takes at
+    // least a byte.
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.available()) {
+            throw new IOException("Corrupt cache entry count: " + count);
+        }
+        return count;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_LENGTH || length > in.available()) {
+            throw new IOException("Corrupt cache string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// The most recent chat messages in a room, numbered in broadcast order, so
+// clients can page back through what was said before they joined.
+//
+// A fixed ring of the broadcast events themselves: remembering a message
+// costs no copy of its text, and once the ring is full each new message
+// overwrites the oldest, so memory stays capped however chatty the room gets.
+//
+// Not thread-safe: only the room's worker touches it.
+public class ChatHistory {
+    private final ServerEvent[] messages;
+    private long lastSeq;
+
+    // A capacity of 0 still numbers messages but keeps none
+    public ChatHistory(int capacity) {
+        this.messages = new ServerEvent[capacity];
+    }
+
+    // Assigns the next sequence number and remembers the numbered message
+    public ServerEvent append(ServerEvent message) {
+        ServerEvent sequenced = message.withSeq(++lastSeq);
+        if (messages.length > 0) {
+            messages[(int) (lastSeq % messages.length)] = sequenced;
+        }
+        return sequenced;
+    }
+
+    // Up to limit kept messages older than beforeSeq (0 for the newest ones),
+    // oldest first
+    public List<ServerEvent> before(long beforeSeq, int limit) {
+        long last = beforeSeq > 0 && beforeSeq <= lastSeq ? beforeSeq - 1 : lastSeq;
+        long first = Math.max(oldestSeq(), last - limit + 1);
+        List<ServerEvent> page = new ArrayList<>((int) Math.max(0, last - first + 1));
+        for (long s = first; s <= last; s++) {
+            page.add(messages[(int) (s % messages.length)]);
+        }
+        return page;
+    }
+
+    // Whether any kept message is older than seq
+    public boolean hasBefore(long seq) {
+        return seq > oldestSeq() && oldestSeq() <= lastSeq;
+    }
+
+    private long oldestSeq() {
+        return Math.max(1, lastSeq - messages.length + 1);
+    }
+}
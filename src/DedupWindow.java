@@ -0,0 +1,66 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Remembers the outcome of recently applied client requests for a while, so
+// a command retried after a timeout or a reconnect is acknowledged again
+// instead of being applied twice.
+//
+// Two generations of a concurrent map: lookups check both, new entries go
+// into the current one, and once it is a window old it becomes the previous
+// generation and the old previous one is dropped whole. An entry therefore
+// lives between one and two windows, with no per-entry timestamps and no
+// sweeping. A generation that fills up early is retired early, so memory
+// stays bounded however fast requests arrive.
+public final class DedupWindow {
+    // Recorded by claim() until the command's outcome is known
+    public static final int PENDING = Integer.MIN_VALUE;
+
+    private final long windowNanos;
+    private final int maxEntries;
+    private final ReentrantLock rotateLock = new ReentrantLock();
+    private volatile ConcurrentHashMap<String, Integer> current = new ConcurrentHashMap<>();
+    private volatile ConcurrentHashMap<String, Integer> previous = new ConcurrentHashMap<>();
+    private volatile long rotatedAt = System.nanoTime();
+
+    // maxEntries caps each generation
+    public DedupWindow(long windowMillis, int maxEntries) {
+        this.windowNanos = windowMillis * 1_000_000L;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    // Returns null if the key is new, in which case the caller applies the
+    // request and then calls complete(); otherwise the recorded outcome,
+    // which is PENDING while the first attempt is still being applied
+    public Integer claim(String key) {
+        rotateIfDue();
+        // The current generation first: an outcome recorded just after a
+        // rotation lands there while the previous one still says PENDING
+        Integer result = current.get(key);
+        if (result == null) {
+            result = previous.get(key);
+        }
+        return result != null ? result : current.putIfAbsent(key, PENDING);
+    }
+
+    public void complete(String key, int result) {
+        current.put(key, result);
+    }
+
+    private void rotateIfDue() {
+        if (System.nanoTime() - rotatedAt < windowNanos && current.size() < maxEntries) {
+            return;
+        }
+        if (!rotateLock.tryLock()) {
+            return; // another thread is rotating
+        }
+        try {
+            if (System.nanoTime() - rotatedAt >= windowNanos || current.size() >= maxEntries) {
+                previous = current;
+                current = new ConcurrentHashMap<>();
+                rotatedAt = System.nanoTime();
+            }
+        } finally {
+            rotateLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// The most recent board events, numbered in broadcast order. A client that
+// reconnects with the last sequence it saw gets just the events it missed,
+// as long as they are still in the ring.
+//
+// Not thread-safe: each room's ring is only touched on that room's worker,
+// so sequence numbers follow fan-out order exactly.
+public class EventRing {
+    private final ServerEvent[] events;
+    private long lastSeq;
+
+    public EventRing(int capacity) {
+        this.events = new ServerEvent[capacity];
+    }
+
+    // Assigns the next sequence number and remembers the numbered event
+    public ServerEvent append(ServerEvent event) {
+        ServerEvent sequenced = event.withSeq(++lastSeq);
+        events[(int) (lastSeq % events.length)] = sequenced;
+        return sequenced;
+    }
+
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    // Events after the given sequence, or null if some have been overwritten
+    public List<ServerEvent> since(long seq) {
+        if (seq > lastSeq || lastSeq - seq > events.length) {
+            return null;
+        }
+        List<ServerEvent> missed = new ArrayList<>((int) (lastSeq - seq));
+        for (long s = seq + 1; s <= lastSeq; s++) {
+            missed.add(events[(int) (s % events.length)]);
+        }
+        return missed;
+    }
+}
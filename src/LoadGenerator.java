@@ -0,0 +1,326 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Headless load generator for ProjectServer.
+//
+// Runs N virtual users, each on its own virtual thread and socket, speaking
+// the text protocol like an old client would. Every user logs in, then loops:
+// think for a random (exponential) time, then send ADD_TASK, COMPLETE_TASK or
+// MESSAGE according to the configured mix.
+//
+// Chat messages and task titles carry the sender's System.nanoTime(), so
+// every other user can measure end-to-end fan-out latency (all users share
+// this JVM's clock); the sender's own echo is not counted. Progress is
+// printed every few seconds and a summary at the end.
+//
+//   java LoadGenerator --users=500 --duration=60 --think-ms=1000 --mix=add:2,complete:1,message:7
+public class LoadGenerator {
+    private static final String MARKER = "lg@";
+
+    private String host = "localhost";
+    private int port = 12345;
+    private int users = 100;
+    private int durationSeconds = 30;
+    private int thinkMillis = 1000;
+    private int rampMillis = 2000;
+    private String room = null;
+    private int addWeight = 2;
+    private int completeWeight = 1;
+    private int messageWeight = 7;
+
+    private final long runId = System.currentTimeMillis() % 100000;
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    // Results
+    private final ServerMetrics.Histogram latency = new ServerMetrics.Histogram();
+    private final LongAdder addsSent = new LongAdder();
+    private final LongAdder completesSent = new LongAdder();
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder eventsReceived = new LongAdder();
+    private final LongAdder throttleNotices = new LongAdder();
+    private final AtomicLong connected = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong droppedConnections = new AtomicLong();
+
+    // Tasks our users added and nobody has completed yet
+    private final ConcurrentLinkedQueue<Integer> openTasks = new ConcurrentLinkedQueue<>();
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: LoadGenerator [--host=localhost] [--port=12345] [--users=100] [--duration=30]" +
+                               " [--think-ms=1000] [--ramp-ms=2000] [--room=NAME] [--mix=add:2,complete:1,message:7]");
+            return;
+        }
+        generator.run();
+    }
+
+    private void parseArgs(String[] args) {
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            String key = parts[0];
+            String value = parts.length > 1 ? parts[1] : "";
+
+            switch (key) {
+                case "--host" -> host = value;
+                case "--port" -> port = Integer.parseInt(value);
+                case "--users" -> users = Math.max(1, Integer.parseInt(value));
+                case "--duration" -> durationSeconds = Math.max(1, Integer.parseInt(value));
+                case "--think-ms" -> thinkMillis = Math.max(0, Integer.parseInt(value));
+                case "--ramp-ms" -> rampMillis = Math.max(0, Integer.parseInt(value));
+                case "--room" -> room = value;
+                case "--mix" -> parseMix(value);
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+    }
+
+    private void parseMix(String mix) {
+        addWeight = completeWeight = messageWeight = 0;
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split(":", 2);
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+            if (weight < 0) {
+                throw new IllegalArgumentException("Mix weights cannot be negative: " + entry);
+            }
+            switch (parts[0]) {
+                case "add" -> addWeight = weight;
+                case "complete" -> completeWeight = weight;
+                case "message" -> messageWeight = weight;
+                default -> throw new IllegalArgumentException("Unknown mix entry: " + parts[0]);
+            }
+        }
+        if (addWeight + completeWeight + messageWeight <= 0) {
+            throw new IllegalArgumentException("The mix needs at least one positive weight");
+        }
+    }
+
+    private void run() throws InterruptedException {
+        System.out.println("Load test: " + users + " users against " + host + ":" + port + " for " + durationSeconds +
+                           "s, think " + thinkMillis + "ms, mix add:" + addWeight + " complete:" + completeWeight +
+                           " message:" + messageWeight);
+
+        List<Thread> threads = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            int userIndex = i;
+            long startDelay = users > 1 ? (long) rampMillis * i / (users - 1) : 0;
+            threads.add(Thread.ofVirtual().name("vu-" + i).start(() -> runUser(userIndex, startDelay)));
+        }
+
+        long start = System.nanoTime();
+        long lastReport = start;
+        long lastSent = 0;
+        long lastReceived = 0;
+        long end = start + durationSeconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(5000, Math.max(1, (end - System.nanoTime()) / 1_000_000)));
+            long now = System.nanoTime();
+            long sent = totalSent();
+            long received = eventsReceived.sum();
+            double seconds = (now - lastReport) / 1e9;
+            System.out.printf("[%3ds] connected=%d sent/s=%.0f received/s=%.0f p50=%.2fms p99=%.2fms dropped=%d%n",
+                              (now - start) / 1_000_000_000L, connected.get(),
+                              (sent - lastSent) / seconds, (received - lastReceived) / seconds,
+                              percentileMillis(0.5), percentileMillis(0.99), droppedConnections.get());
+            lastReport = now;
+            lastSent = sent;
+            lastReceived = received;
+        }
+
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            thread.join(2000);
+        }
+        printSummary((System.nanoTime() - start) / 1e9);
+    }
+
+    // One virtual user: connect, log in, then act until the run ends
+    private void runUser(int userIndex, long startDelay) {
+        String username = "lg" + runId + "-" + userIndex;
+        try {
+            Thread.sleep(startDelay);
+        } catch (InterruptedException e) {
+            return;
+        }
+
+        Socket socket;
+        try {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            connectFailures.incrementAndGet();
+            return;
+        }
+
+        // A write failure just ends the session; closing the socket makes the
+        // reader see it, and the reader alone counts the drop
+        try (socket) {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            if (room != null) {
+                send(out, "ROOM:" + room);
+            }
+            send(out, "USERNAME:" + username);
+            connected.incrementAndGet();
+
+            Thread.ofVirtual().name(username + "-reader").start(() -> readLoop(in, username));
+            actLoop(out);
+        } catch (IOException e) {
+            // Counted by the reader
+        }
+    }
+
+    private void actLoop(OutputStream out) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int totalWeight = addWeight + completeWeight + messageWeight;
+        while (running.get()) {
+            if (thinkMillis > 0) {
+                long think = (long) (-Math.log(1 - random.nextDouble()) * thinkMillis);
+                try {
+                    Thread.sleep(think);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (!running.get()) {
+                return;
+            }
+
+            int pick = random.nextInt(totalWeight);
+            if (pick < addWeight) {
+                send(out, "ADD_TASK:" + MARKER + System.nanoTime() + "|generated by the load test");
+                addsSent.increment();
+            } else if (pick < addWeight + completeWeight) {
+                Integer taskId = openTasks.poll();
+                if (taskId != null) {
+                    send(out, "COMPLETE_TASK:" + taskId);
+                    completesSent.increment();
+                }
+            } else {
+                send(out, "MESSAGE:" + MARKER + System.nanoTime());
+                messagesSent.increment();
+            }
+        }
+    }
+
+    private void readLoop(InputStream in, String username) {
+        ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(256);
+        try {
+            String line;
+            while ((line = WireProtocol.readLine(in, lineBuffer)) != null) {
+                onLine(line, username);
+            }
+        } catch (IOException e) {
+            // Same as end of stream
+        }
+        connected.decrementAndGet();
+        if (running.get()) {
+            droppedConnections.incrementAndGet();
+        }
+    }
+
+    private void onLine(String line, String username) {
+        long received = System.nanoTime();
+        if (line.startsWith("MESSAGE:")) {
+            eventsReceived.increment();
+            // MESSAGE:sender: text
+            if (!line.startsWith("MESSAGE:" + username + ": ")) {
+                recordLatency(line, received);
+            }
+        } else if (line.startsWith("TASK_ADDED:")) {
+            eventsReceived.increment();
+            // id|title|description|assignedBy|status|completedBy|seq
+            String[] parts = line.substring(11).split("\\|");
+            if (parts.length >= 5 && parts[3].equals(username) && parts[4].equals("PENDING")) {
+                openTasks.add(Integer.parseInt(parts[0]));
+            }
+            // Snapshot tasks (seq 0, between SYNC_RESET and SYNC) were added
+            // long before this client joined and say nothing about latency
+            if (parts.length >= 4 && !parts[3].equals(username) && !parts[parts.length - 1].equals("0")) {
+                recordLatency(parts[1], received);
+            }
+        } else if (line.startsWith("TASK_COMPLETED:") || line.startsWith("TASK_DELETED:")) {
+            eventsReceived.increment();
+        } else if (line.startsWith("SYSTEM:") && line.endsWith("were not delivered")) {
+            throttleNotices.increment();
+        }
+    }
+
+    // Pulls the sender's timestamp out of a marked message or title
+    private void recordLatency(String text, long received) {
+        int marker = text.indexOf(MARKER);
+        if (marker < 0) {
+            return;
+        }
+        int start = marker + MARKER.length();
+        int end = start;
+        while (end < text.length() && (Character.isDigit(text.charAt(end)) || text.charAt(end) == '-')) {
+            end++;
+        }
+        try {
+            latency.record(received - Long.parseLong(text.substring(start, end)));
+        } catch (NumberFormatException e) {
+            // Not one of ours
+        }
+    }
+
+    private static void send(OutputStream out, String command) throws IOException {
+        out.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private long totalSent() {
+        return addsSent.sum() + completesSent.sum() + messagesSent.sum();
+    }
+
+    private double percentileMillis(double quantile) {
+        long[] snapshot = new long[ServerMetrics.Histogram.BUCKETS];
+        return percentileMillis(snapshot, latency.snapshot(snapshot), quantile);
+    }
+
+    // Bucket upper bounds can overshoot the largest value seen
+    private double percentileMillis(long[] snapshot, long count, double quantile) {
+        return Math.min(ServerMetrics.Histogram.percentile(snapshot, count, quantile), latency.getMax()) / 1e6;
+    }
+
+    private void printSummary(double seconds) {
+        long[] snapshot = new long[ServerMetrics.Histogram.BUCKETS];
+        long samples = latency.snapshot(snapshot);
+
+        System.out.println();
+        System.out.println("=== Summary ===");
+        System.out.printf("Duration:            %.1fs%n", seconds);
+        System.out.printf("Sent:                %d (add %d, complete %d, message %d)%n",
+                          totalSent(), addsSent.sum(), completesSent.sum(), messagesSent.sum());
+        System.out.printf("Send throughput:     %.0f commands/s%n", totalSent() / seconds);
+        System.out.printf("Receive throughput:  %.0f events/s%n", eventsReceived.sum() / seconds);
+        System.out.printf("Fan-out latency:     p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms" +
+                          " (%d samples)%n",
+                          percentileMillis(snapshot, samples, 0.5), percentileMillis(snapshot, samples, 0.9),
+                          percentileMillis(snapshot, samples, 0.99), percentileMillis(snapshot, samples, 0.999),
+                          latency.getMax() / 1e6, samples);
+        System.out.printf("Connections:         %d failed to connect, %d dropped during the run%n",
+                          connectFailures.get(), droppedConnections.get());
+        System.out.printf("Throttle notices:    %d (raise the server's --client-rate/--room-rate to avoid)%n",
+                          throttleNotices.sum());
+    }
+}
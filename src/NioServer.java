@@ -0,0 +1,449 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+// Selector based server engine: the accept loop hands channels round-robin to a
+// fixed number of event loops, each of which owns a Selector and drives the
+// non-blocking reads and writes of its connections.
+public class NioServer {
+    private final int port;
+    private final EventLoop[] loops;
+
+    public NioServer(int port, int eventLoopCount) {
+        this.port = port;
+        this.loops = new EventLoop[eventLoopCount];
+    }
+
+    public void start() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+            loops[i].start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            ServerLog.info("server.started", "port", port, "eventLoops", loops.length);
+
+            int next = 0;
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                ServerLog.info("client.connected", "remote", channel.getRemoteAddress());
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    static class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+
+        // Connections holding back a flush until their deadline. Every
+        // connection waits the same delay, so arrival order is deadline
+        // order. Event loop only.
+        private final ArrayDeque<NioConnection> delayedFlushes = new ArrayDeque<>();
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-event-loop-" + index);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        boolean inEventLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    ProjectServer.enableKeepAlive(channel.socket());
+                    NioConnection connection = new NioConnection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    ProjectServer.addClient(connection);
+                    connection.onConnected();
+                } catch (IOException e) {
+                    ServerLog.warn("client.register_failed", "error", e.getMessage());
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    select();
+                    runTasks();
+                    runDueFlushes();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        try {
+                            if (!key.isValid()) {
+                                connection.close();
+                                continue;
+                            }
+                            if (key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (CancelledKeyException e) {
+                            // Closed while we were handling it; one connection,
+                            // not the whole loop
+                            connection.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    ServerLog.error("eventloop.error", "error", e.getMessage());
+                }
+            }
+        }
+
+        // Blocks until I/O, a task, or the next delayed flush is due
+        private void select() throws IOException {
+            NioConnection next = delayedFlushes.peek();
+            if (next == null) {
+                selector.select();
+                return;
+            }
+            long waitMillis = (next.flushDeadline - System.nanoTime() + 999_999) / 1_000_000;
+            if (waitMillis > 0) {
+                selector.select(waitMillis);
+            } else {
+                selector.selectNow();
+            }
+        }
+
+        void flushLater(NioConnection connection) {
+            connection.flushDeadline = System.nanoTime() + connection.flushDelayNanos;
+            delayedFlushes.add(connection);
+        }
+
+        private void runDueFlushes() {
+            long now = System.nanoTime();
+            NioConnection connection;
+            while ((connection = delayedFlushes.peek()) != null && connection.flushDeadline - now <= 0) {
+                delayedFlushes.poll();
+                connection.flushDue();
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (CancelledKeyException e) {
+                    // The task's connection was closed meanwhile
+                } catch (RuntimeException e) {
+                    ServerLog.error("eventloop.task_failed", "error", e.toString());
+                }
+            }
+        }
+    }
+
+    static class NioConnection extends ProjectConnection {
+        private static final int READ_BUFFER_SIZE = 8192;
+        private static final int MAX_LINE_LENGTH = 64 * 1024;
+        private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private SelectionKey key;
+
+        // Per-connection buffers, only touched by the owning event loop. Lines
+        // and frames are decoded in place; the buffer grows only for frames
+        // larger than it.
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        // Set while a login waits for its room to open. Nothing more is read
+        // or decoded meanwhile, so commands sent right after USERNAME are
+        // handled once the client is in the room, in order.
+        private boolean readPaused;
+
+        // Queued events are packed into writeBuffer so a burst costs one
+        // write. pendingWrite is what the socket has not taken yet: the packed
+        // buffer, or an event too big for it on its own. carriedOver is an
+        // encoded event that did not fit in the last batch.
+        private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        private ByteBuffer pendingWrite;
+        private byte[] carriedOver;
+
+        // Set while a flush is queued on, or running in, the event loop
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        // Set while the connection waits in the loop's delayed flushes
+        private final AtomicBoolean flushDelayed = new AtomicBoolean();
+        private long flushDeadline;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        NioConnection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        void onReadable() {
+            if (closed.get()) {
+                return; // the channel is closed by a task already queued
+            }
+            int read;
+            try {
+                read = channel.read(readBuffer);
+            } catch (IOException e) {
+                ServerLog.warn("client.error", "user", getUsername(), "error", e.getMessage());
+                close();
+                return;
+            }
+            if (read < 0) {
+                close();
+                return;
+            }
+            decodeBuffered();
+        }
+
+        private void decodeBuffered() {
+            readBuffer.flip();
+            try {
+                while (!closed.get() && !readPaused && (binaryInput ? decodeFrame() : decodeLine())) {
+                    // keep going while whole messages are buffered
+                }
+            } catch (RuntimeException e) {
+                ServerLog.warn("client.malformed_input", "user", getUsername(), "error", e.getMessage());
+                close();
+                return;
+            }
+            readBuffer.compact();
+        }
+
+        private boolean decodeLine() {
+            int start = readBuffer.position();
+            for (int i = start; i < readBuffer.limit(); i++) {
+                if (readBuffer.get(i) == '\n') {
+                    int end = i > start && readBuffer.get(i - 1) == '\r' ? i - 1 : i;
+                    String line = new String(readBuffer.array(), start, end - start, StandardCharsets.UTF_8);
+                    readBuffer.position(i + 1);
+                    handleLine(line);
+                    return true;
+                }
+            }
+            if (readBuffer.remaining() >= MAX_LINE_LENGTH) {
+                throw new IllegalArgumentException("line too long");
+            }
+            ensureCapacity(readBuffer.remaining() + 1);
+            return false;
+        }
+
+        private boolean decodeFrame() {
+            int length = WireProtocol.peekFrame(readBuffer);
+            if (length < 0) {
+                ensureCapacity(readBuffer.remaining() + 1);
+                return false;
+            }
+            // Hand the handler a view of just this frame, without copying
+            int frameEnd = readBuffer.position() + length;
+            int limit = readBuffer.limit();
+            readBuffer.limit(frameEnd);
+            handleFrame(readBuffer);
+            readBuffer.limit(limit).position(frameEnd);
+            return true;
+        }
+
+        // Opening a room may mean replaying its journal, which must not hold
+        // up the other connections on this loop
+        @Override
+        protected void openRoom(String name, Consumer<ProjectRoom> whenOpen) {
+            CompletableFuture<ProjectRoom> opening = ProjectServer.openRoom(name);
+            if (opening.isDone()) {
+                whenOpen.accept(opening.join());
+                return;
+            }
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            opening.thenAccept(room -> loop.execute(() -> {
+                if (closed.get()) {
+                    if (room != null) {
+                        ProjectServer.releaseRoom(room);
+                    }
+                    return;
+                }
+                whenOpen.accept(room);
+                readPaused = false;
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                decodeBuffered();
+            }));
+        }
+
+        private int readInterest() {
+            return readPaused ? 0 : SelectionKey.OP_READ;
+        }
+
+        // Grows the read buffer when a partial message already fills it
+        private void ensureCapacity(int needed) {
+            if (needed > readBuffer.capacity() && readBuffer.position() == 0) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, readBuffer.capacity() * 2));
+                larger.put(readBuffer).flip();
+                readBuffer = larger;
+            }
+        }
+
+        // Holds the first event of a burst back for the flush delay, so the
+        // ones behind it share its write; a full batch goes out at once
+        @Override
+        protected void messageQueued() {
+            if (closed.get()) {
+                return;
+            }
+            if (flushDelayNanos > 0 && outbound.size() < flushBatch) {
+                if (flushDelayed.compareAndSet(false, true)) {
+                    if (loop.inEventLoop()) {
+                        loop.flushLater(this);
+                    } else {
+                        loop.execute(() -> loop.flushLater(this));
+                    }
+                }
+                return;
+            }
+            scheduleFlush();
+        }
+
+        // Event loop only
+        void flushDue() {
+            flushDelayed.set(false);
+            scheduleFlush();
+        }
+
+        private void scheduleFlush() {
+            if (flushScheduled.compareAndSet(false, true)) {
+                if (loop.inEventLoop()) {
+                    flush();
+                } else {
+                    loop.execute(this::flush);
+                }
+            }
+        }
+
+        // Writes as much of the outbound queue as the socket accepts; the rest
+        // waits for OP_WRITE. Runs on the event loop only.
+        void flush() {
+            if (closed.get()) {
+                return;
+            }
+            try {
+                while (true) {
+                    if (pendingWrite == null) {
+                        pendingWrite = nextBatch();
+                    }
+                    if (pendingWrite == null) {
+                        key.interestOps(readInterest());
+                        flushScheduled.set(false);
+                        // A producer may have queued after our poll but before the reset
+                        if (outbound.isEmpty() || !flushScheduled.compareAndSet(false, true)) {
+                            return;
+                        }
+                        continue;
+                    }
+
+                    channel.write(pendingWrite);
+                    countSocketWrite();
+                    if (pendingWrite.hasRemaining()) {
+                        key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    pendingWrite = null;
+                }
+            } catch (IOException e) {
+                ServerLog.warn("client.error", "user", getUsername(), "error", e.getMessage());
+                close();
+            } catch (CancelledKeyException e) {
+                close();
+            }
+        }
+
+        // Encodes queued events into writeBuffer until the next one does not
+        // fit. Returns null if nothing is queued.
+        private ByteBuffer nextBatch() {
+            byte[] bytes = carriedOver != null ? carriedOver : nextEncoded();
+            carriedOver = null;
+            if (bytes == null) {
+                return null;
+            }
+            if (bytes.length >= writeBuffer.capacity()) {
+                return ByteBuffer.wrap(bytes);
+            }
+            writeBuffer.clear();
+            writeBuffer.put(bytes);
+            while ((bytes = nextEncoded()) != null) {
+                if (bytes.length > writeBuffer.remaining()) {
+                    carriedOver = bytes;
+                    break;
+                }
+                writeBuffer.put(bytes);
+            }
+            return writeBuffer.flip();
+        }
+
+        private byte[] nextEncoded() {
+            ServerEvent event = outbound.poll();
+            return event != null ? encode(event) : null;
+        }
+
+        // Any thread. Heartbeats and room workers close connections too, but
+        // only the event loop touches its keys, so the channel itself is
+        // closed there; everything else sees the closed flag straight away.
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            if (loop.inEventLoop()) {
+                closeChannel();
+            } else {
+                loop.execute(this::closeChannel);
+            }
+            outbound.clear();
+            ProjectServer.removeClient(this);
+        }
+
+        // Event loop only
+        private void closeChannel() {
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                ServerLog.warn("client.close_failed", "user", getUsername(), "error", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The app's copy of a shared project board, kept in step with the server's
+// broadcasts. Tasks are indexed by ID, so applying an event costs the same
+// however large the board is; iteration follows the order tasks arrived in.
+//
+// Not thread-safe: ProjectController only touches it on the FX thread.
+public class ProjectBoard {
+    private final Map<Integer, ProjectTask> tasks = new LinkedHashMap<>();
+
+    // Adds or replaces a task as the server describes it. A resync repeats
+    // tasks we already have; they keep their place on the board.
+    public ProjectTask put(int id, String title, String description, String assignedBy,
+                           TaskStatus status, String completedBy) {
+        ProjectTask task = new ProjectTask(id, title, description, assignedBy);
+        if (status == TaskStatus.COMPLETED) {
+            task.complete(completedBy, null);
+        }
+        tasks.put(id, task);
+        return task;
+    }
+
+    // The task, now completed by completedBy, or null if we don't have it.
+    // Whoever the server says completed it wins over an optimistic update.
+    public ProjectTask complete(int id, String completedBy) {
+        ProjectTask task = tasks.get(id);
+        if (task == null) {
+            return null;
+        }
+        if (!completedBy.equals(task.getCompletedBy())) {
+            task = new ProjectTask(id, task.getTitle(), task.getDescription(), task.getAssignedBy(),
+                    task.getCreatedDate());
+            task.complete(completedBy, null);
+            tasks.put(id, task);
+        }
+        return task;
+    }
+
+    public ProjectTask get(int id) {
+        return tasks.get(id);
+    }
+
+    public ProjectTask remove(int id) {
+        return tasks.remove(id);
+    }
+
+    public void clear() {
+        tasks.clear();
+    }
+
+    public int size() {
+        return tasks.size();
+    }
+
+    public Collection<ProjectTask> getTasks() {
+        return tasks.values();
+    }
+}
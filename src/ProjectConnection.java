@@ -0,0 +1,656 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Protocol state shared by every connection flavour (blocking socket or NIO
+// channel). Subclasses only deal with moving bytes in and out of the socket.
+abstract class ProjectConnection {
+    // Traffic by message type, indexed by WireProtocol.CMD_* (0 is HELLO)
+    // and by ServerEvent.Type
+    private static final String[] COMMAND_NAMES = {
+            "HELLO", "USERNAME", "ADD_TASK", "COMPLETE_TASK", "DELETE_TASK", "MESSAGE", "RESUME", "ROOM", "GET_USERS", "PONG",
+            "HISTORY_BEFORE" };
+    private static final ServerMetrics.Counter[] commandsIn = new ServerMetrics.Counter[COMMAND_NAMES.length];
+    private static final ServerMetrics.Counter[] eventsOut = new ServerMetrics.Counter[ServerEvent.Type.values().length];
+    private static final ServerMetrics.Counter[] slowConsumerActions =
+            new ServerMetrics.Counter[ServerConfig.SlowConsumerPolicy.values().length];
+    private static final ServerMetrics.Counter socketWrites = ServerMetrics.counter("socket_writes_total", "");
+    private static final ServerMetrics.Counter throttledByClient =
+            ServerMetrics.counter("throttled_total", ServerMetrics.label("scope", "client"));
+    private static final ServerMetrics.Counter throttledByRoom =
+            ServerMetrics.counter("throttled_total", ServerMetrics.label("scope", "room"));
+    private static final long THROTTLE_NOTICE_INTERVAL_NANOS = 1_000_000_000L;
+    // Most chat messages one HISTORY_BEFORE may ask for
+    private static final int MAX_HISTORY_PAGE = 200;
+    private static final ServerMetrics.Counter reapedSilent =
+            ServerMetrics.counter("connections_reaped_total", ServerMetrics.label("reason", "heartbeat"));
+    private static final ServerMetrics.Counter reapedBeforeLogin =
+            ServerMetrics.counter("connections_reaped_total", ServerMetrics.label("reason", "login"));
+    private static final ServerMetrics.Counter duplicateCommands = ServerMetrics.counter("duplicate_commands_total", "");
+    // Recorded in the dedup window for a command that could not be applied
+    private static final int REQUEST_FAILED = -1;
+    private static final ServerMetrics.Counter compressionIn =
+            ServerMetrics.counter("compression_bytes_total", ServerMetrics.label("stage", "before"));
+    private static final ServerMetrics.Counter compressionOut =
+            ServerMetrics.counter("compression_bytes_total", ServerMetrics.label("stage", "after"));
+    private static final ServerMetrics.Histogram heartbeatRoundTrip = ServerMetrics.histogram("heartbeat_rtt_micros", "");
+    static {
+        for (int i = 0; i < COMMAND_NAMES.length; i++) {
+            commandsIn[i] = ServerMetrics.counter("messages_in_total", ServerMetrics.label("type", COMMAND_NAMES[i]));
+        }
+        for (ServerEvent.Type type : ServerEvent.Type.values()) {
+            if (type != ServerEvent.Type.BATCH) {
+                eventsOut[type.ordinal()] = ServerMetrics.counter("messages_out_total", ServerMetrics.label("type", type.name()));
+            }
+        }
+        for (ServerConfig.SlowConsumerPolicy policy : ServerConfig.SlowConsumerPolicy.values()) {
+            slowConsumerActions[policy.ordinal()] = ServerMetrics.counter("slow_consumer_total",
+                    ServerMetrics.label("policy", policy.name().toLowerCase()));
+        }
+    }
+
+    private volatile String username;
+
+    // Bounded per-client backlog. Broadcasts only ever enqueue here; each
+    // transport drains it at its own pace.
+    protected final BlockingQueue<ServerEvent> outbound =
+            new LinkedBlockingQueue<>(ProjectServer.getConfig().getOutboundQueueCapacity());
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    // Output batching: a transport may hold queued events back for up to
+    // flushDelayNanos so that a burst goes out in one write, unless
+    // flushBatch of them are already waiting
+    protected final long flushDelayNanos =
+            TimeUnit.MILLISECONDS.toNanos(ProjectServer.getConfig().getFlushDelayMillis());
+    protected final int flushBatch = ProjectServer.getConfig().getFlushBatch();
+    // Set while a coalescing resync is on its way; anything queued meanwhile
+    // would be superseded by it
+    private final AtomicBoolean resyncPending = new AtomicBoolean();
+    // ACKs that could not be queued yet, behind a pending resync or a full
+    // queue. Each attempt gets exactly one ACK, so unlike other events they
+    // are never dropped: they go out ahead of the next event that fits. A
+    // client that lets as many pile up as its outbound queue holds has
+    // stopped reading, and is disconnected.
+    private final BlockingQueue<ServerEvent> heldAcks =
+            new LinkedBlockingQueue<>(ProjectServer.getConfig().getOutboundQueueCapacity());
+
+    // Commands that reach the room are rate limited, first per client and
+    // then per room. Throttled commands are dropped; the client hears about
+    // it at most once a second. The notice time is only touched by the
+    // reading thread.
+    private final TokenBucket commandBucket = new TokenBucket(
+            ProjectServer.getConfig().getClientRate(), ProjectServer.getConfig().getClientBurst());
+    private long lastThrottleNotice = System.nanoTime() - THROTTLE_NOTICE_INTERVAL_NANOS;
+
+    // Chosen with ROOM before login; fixed once logged in
+    private String roomName = ProjectServer.DEFAULT_ROOM;
+    private volatile ProjectRoom room;
+
+    // Negotiated dialect. Input is switched by the reader as soon as it sees
+    // HELLO; output is switched by the writer once HELLO_OK has gone out, so
+    // everything queued before it is still sent as text.
+    protected boolean binaryInput;
+    private boolean binaryOutput;
+    // Frames of at least this many bytes go out deflated, for binary clients
+    // that offered DEFLATE. Writer thread only, like binaryOutput.
+    private final int compressThreshold = ProjectServer.getConfig().getCompressThreshold();
+    private boolean compressOutput;
+    private volatile boolean presenceDeltas;
+
+    // Liveness. Every command stamps lastHeard; the heartbeat timer checks it
+    // once an interval. Clients that negotiated HEARTBEAT are pinged when
+    // quiet and reaped if they stay silent; older clients cannot answer, so
+    // they are left to TCP keepalive. Nobody may sit unnamed for long.
+    private volatile long lastHeardNanos = System.nanoTime();
+    private volatile boolean heartbeats;
+    private volatile boolean departed;
+    private volatile TimerWheel.Timeout heartbeatTimer;
+
+    // Where a reconnecting client left off, sent with RESUME before login
+    private long resumeEpoch = -1;
+    private long resumeSeq;
+
+    // Called once the transport is ready to send
+    protected void onConnected() {
+        sendMessage(ServerEvent.system("Enter your username:"));
+    }
+
+    // Handles a single line of the text protocol
+    protected void handleLine(String message) {
+        lastHeardNanos = System.nanoTime();
+        if (username == null) {
+            if (message.startsWith(WireProtocol.HELLO)) {
+                handleHello(message.substring(WireProtocol.HELLO.length()));
+            } else if (message.startsWith("ROOM:")) {
+                handleRoom(message.substring(5));
+            } else if (message.startsWith("RESUME:")) {
+                String[] parts = message.substring(7).split(":");
+                try {
+                    handleResume(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    ServerLog.warn("command.invalid", "user", username, "command", message);
+                }
+            } else if (message.startsWith("USERNAME:")) {
+                handleLogin(message.substring(9));
+            }
+            return;
+        }
+
+        // "REQ:<id>|<command>" tags a command with the client's request ID
+        long requestId = 0;
+        if (message.startsWith("REQ:")) {
+            int separator = message.indexOf('|');
+            try {
+                requestId = Long.parseLong(message.substring(4, separator));
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                ServerLog.warn("command.invalid", "user", username, "command", message);
+                return;
+            }
+            message = message.substring(separator + 1);
+        }
+
+        if (message.startsWith("ADD_TASK:")) {
+            String[] parts = message.substring(9).split("\\|", 2);
+            if (parts.length == 2) {
+                handleAddTask(parts[0], parts[1], requestId);
+            }
+        } else if (message.startsWith("COMPLETE_TASK:")) {
+            String taskIdStr = message.substring(14);
+            try {
+                handleCompleteTask(Integer.parseInt(taskIdStr), requestId);
+            } catch (NumberFormatException e) {
+                ServerLog.warn("command.invalid", "user", username, "command", message);
+            }
+        } else if (message.startsWith("DELETE_TASK:")) {
+            String taskIdStr = message.substring(12);
+            try {
+                handleDeleteTask(Integer.parseInt(taskIdStr), requestId);
+            } catch (NumberFormatException e) {
+                ServerLog.warn("command.invalid", "user", username, "command", message);
+            }
+        } else if (message.startsWith("MESSAGE:")) {
+            handleChat(message.substring(8), requestId);
+        } else if (message.startsWith("GET_USERS:")) {
+            handleGetUsers();
+        } else if (message.startsWith("HISTORY_BEFORE:")) {
+            String[] parts = message.substring(15).split("\\|");
+            try {
+                handleHistoryBefore(Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                ServerLog.warn("command.invalid", "user", username, "command", message);
+            }
+        } else if (message.startsWith("PONG:")) {
+            try {
+                handlePong(Long.parseLong(message.substring(5)));
+            } catch (NumberFormatException e) {
+                ServerLog.warn("command.invalid", "user", username, "command", message);
+            }
+        }
+    }
+
+    // Handles one binary frame; the buffer is positioned at the type byte and
+    // limited to the frame, and is reused once this returns
+    protected void handleFrame(ByteBuffer frame) {
+        lastHeardNanos = System.nanoTime();
+        byte type = frame.get();
+        if (username == null) {
+            if (type == WireProtocol.CMD_ROOM) {
+                handleRoom(WireProtocol.readString(frame));
+            } else if (type == WireProtocol.CMD_RESUME) {
+                long epoch = WireProtocol.readVarlong(frame);
+                handleResume(epoch, WireProtocol.readVarlong(frame));
+            } else if (type == WireProtocol.CMD_USERNAME) {
+                handleLogin(WireProtocol.readString(frame));
+            }
+            return;
+        }
+
+        // Commands that may carry a request ID have it as a trailing varlong
+        switch (type) {
+            case WireProtocol.CMD_ADD_TASK -> {
+                String title = WireProtocol.readString(frame);
+                String description = WireProtocol.readString(frame);
+                handleAddTask(title, description, readRequestId(frame));
+            }
+            case WireProtocol.CMD_COMPLETE_TASK -> {
+                int taskId = WireProtocol.readVarint(frame);
+                handleCompleteTask(taskId, readRequestId(frame));
+            }
+            case WireProtocol.CMD_DELETE_TASK -> {
+                int taskId = WireProtocol.readVarint(frame);
+                handleDeleteTask(taskId, readRequestId(frame));
+            }
+            case WireProtocol.CMD_MESSAGE -> {
+                String text = WireProtocol.readString(frame);
+                handleChat(text, readRequestId(frame));
+            }
+            case WireProtocol.CMD_GET_USERS -> handleGetUsers();
+            case WireProtocol.CMD_PONG -> handlePong(WireProtocol.readVarlong(frame));
+            case WireProtocol.CMD_HISTORY_BEFORE -> {
+                long beforeSeq = WireProtocol.readVarlong(frame);
+                handleHistoryBefore(beforeSeq, WireProtocol.readVarint(frame));
+            }
+            default -> ServerLog.warn("command.unknown_frame", "user", username, "type", type);
+        }
+    }
+
+    private static long readRequestId(ByteBuffer frame) {
+        return frame.hasRemaining() ? WireProtocol.readVarlong(frame) : 0;
+    }
+
+    private void handleHello(String capabilities) {
+        commandsIn[0].increment();
+        List<String> accepted = new ArrayList<>();
+        for (String capability : capabilities.split(",")) {
+            String name = capability.trim();
+            if (name.equals(WireProtocol.BINARY) || name.equals(WireProtocol.RESUME)
+                    || name.equals(WireProtocol.PRESENCE) || name.equals(WireProtocol.HEARTBEAT)
+                    || name.equals(WireProtocol.HISTORY) || name.equals(WireProtocol.ACK)) {
+                accepted.add(name);
+            } else if (name.equals(WireProtocol.DEFLATE) && compressThreshold > 0) {
+                accepted.add(name);
+            }
+        }
+        // Compression only applies to frames
+        if (!accepted.contains(WireProtocol.BINARY)) {
+            accepted.remove(WireProtocol.DEFLATE);
+        }
+        presenceDeltas = accepted.contains(WireProtocol.PRESENCE);
+        heartbeats = accepted.contains(WireProtocol.HEARTBEAT);
+        sendMessage(ServerEvent.helloOk(String.join(",", accepted)));
+        binaryInput = accepted.contains(WireProtocol.BINARY);
+    }
+
+    private void handleRoom(String requestedRoom) {
+        commandsIn[WireProtocol.CMD_ROOM].increment();
+        if (WireProtocol.isValidRoomName(requestedRoom)) {
+            roomName = requestedRoom;
+        } else {
+            sendMessage(ServerEvent.system("Invalid project name: letters, digits, '-' and '_' only"));
+        }
+    }
+
+    private void handleResume(long epoch, long seq) {
+        commandsIn[WireProtocol.CMD_RESUME].increment();
+        resumeEpoch = epoch;
+        resumeSeq = seq;
+    }
+
+    private void handleLogin(String requestedUsername) {
+        commandsIn[WireProtocol.CMD_USERNAME].increment();
+        openRoom(roomName, opened -> login(opened, requestedUsername));
+    }
+
+    // Reader thread. The room is null if it could not be opened.
+    private void login(ProjectRoom opened, String requestedUsername) {
+        if (opened == null) {
+            sendMessage(ServerEvent.system("Project " + roomName + " is unavailable"));
+            return;
+        }
+        room = opened;
+        if (!ProjectServer.addUsername(requestedUsername, this)) {
+            room = null;
+            ProjectServer.releaseRoom(opened);
+            sendMessage(ServerEvent.system("Username already taken. Please choose another:"));
+        }
+    }
+
+    // Hands the named room, held for this login, to whenOpen on the reader
+    // thread, or null if it cannot be opened. A thread per client can simply
+    // wait while a room loads its journal; NioConnection cannot, and
+    // overrides this.
+    protected void openRoom(String name, Consumer<ProjectRoom> whenOpen) {
+        whenOpen.accept(ProjectServer.openRoom(name).join());
+    }
+
+    // Called on the room's worker once this client is a member; everything
+    // queued here precedes any later broadcast to the room
+    void onJoined() {
+        sendMessage(ServerEvent.system("Welcome to the project, " + username + "!"));
+        sendUserList();
+        sendMessage(room.catchUp(resumeEpoch, resumeSeq));
+    }
+
+    private void handleAddTask(String title, String description, long requestId) {
+        commandsIn[WireProtocol.CMD_ADD_TASK].increment();
+        if (!admit(requestId) || isRetry(requestId)) {
+            return;
+        }
+        room.addTask(title, description, username, taskId -> {
+            acknowledge(requestId, taskId);
+            if (ServerLog.sampled(ServerLog.Level.INFO)) {
+                ServerLog.info("task.added", "room", room.getName(), "user", username, "task", taskId);
+            }
+        });
+    }
+
+    private void handleCompleteTask(int taskId, long requestId) {
+        commandsIn[WireProtocol.CMD_COMPLETE_TASK].increment();
+        if (!admit(requestId) || isRetry(requestId)) {
+            return;
+        }
+        room.completeTask(taskId, username, result -> {
+            acknowledge(requestId, result != 0 ? result : REQUEST_FAILED);
+            if (result != 0 && ServerLog.sampled(ServerLog.Level.INFO)) {
+                ServerLog.info("task.completed", "room", room.getName(), "user", username, "task", taskId);
+            }
+        });
+    }
+
+    private void handleDeleteTask(int taskId, long requestId) {
+        commandsIn[WireProtocol.CMD_DELETE_TASK].increment();
+        if (!admit(requestId) || isRetry(requestId)) {
+            return;
+        }
+        room.deleteTask(taskId, username, result -> {
+            acknowledge(requestId, result != 0 ? result : REQUEST_FAILED);
+            if (result != 0 && ServerLog.sampled(ServerLog.Level.INFO)) {
+                ServerLog.info("task.deleted", "room", room.getName(), "user", username, "task", taskId);
+            }
+        });
+    }
+
+    private void handleChat(String chatMessage, long requestId) {
+        commandsIn[WireProtocol.CMD_MESSAGE].increment();
+        if (!admit(requestId) || isRetry(requestId)) {
+            return;
+        }
+        room.broadcast(ServerEvent.message(username, chatMessage));
+        acknowledge(requestId, 0);
+    }
+
+    // Request IDs (0 = none). An ACK means the command has been applied and,
+    // for task changes with the journal on, written to disk; its broadcast
+    // follows. Throttled commands are not remembered, so their retries are
+    // judged afresh.
+
+    // True if an earlier attempt of this request got here first, in which
+    // case it is acknowledged again with that attempt's outcome
+    private boolean isRetry(long requestId) {
+        if (requestId == 0) {
+            return false;
+        }
+        Integer result = room.claimRequest(username, requestId);
+        if (result == null) {
+            return false;
+        }
+        duplicateCommands.increment();
+        if (result == REQUEST_FAILED) {
+            sendMessage(ServerEvent.ack(requestId, WireProtocol.AckStatus.FAILED, 0));
+        } else {
+            sendMessage(ServerEvent.ack(requestId, WireProtocol.AckStatus.DUPLICATE,
+                    result == DedupWindow.PENDING ? 0 : result));
+        }
+        return true;
+    }
+
+    private void acknowledge(long requestId, int result) {
+        if (requestId == 0) {
+            return;
+        }
+        room.completeRequest(username, requestId, result);
+        sendMessage(result == REQUEST_FAILED
+                ? ServerEvent.ack(requestId, WireProtocol.AckStatus.FAILED, 0)
+                : ServerEvent.ack(requestId, WireProtocol.AckStatus.OK, result));
+    }
+
+    // A page of chat from before beforeSeq; 0 asks for the latest messages
+    private void handleHistoryBefore(long beforeSeq, int limit) {
+        commandsIn[WireProtocol.CMD_HISTORY_BEFORE].increment();
+        if (!admit()) {
+            return;
+        }
+        room.sendHistory(this, beforeSeq, Math.max(1, Math.min(limit, MAX_HISTORY_PAGE)));
+    }
+
+    private void handleGetUsers() {
+        commandsIn[WireProtocol.CMD_GET_USERS].increment();
+        if (!admit()) {
+            return;
+        }
+        room.sendUsers(this);
+    }
+
+    // Not rate limited: answering pings must never get a client reaped
+    private void handlePong(long token) {
+        commandsIn[WireProtocol.CMD_PONG].increment();
+        heartbeatRoundTrip.recordSince(token);
+    }
+
+    // Heartbeats
+
+    // Called once the connection is registered with the server
+    void startHeartbeats(TimerWheel wheel, long intervalMillis, long timeoutMillis) {
+        heartbeatTimer = wheel.schedule(() -> checkAlive(wheel, intervalMillis, timeoutMillis), intervalMillis);
+    }
+
+    // Called once the connection is unregistered
+    void stopHeartbeats() {
+        departed = true;
+        TimerWheel.Timeout timer = heartbeatTimer;
+        if (timer != null) {
+            timer.cancel();
+        }
+    }
+
+    // Runs on the timer wheel's thread, so it only queues or closes
+    private void checkAlive(TimerWheel wheel, long intervalMillis, long timeoutMillis) {
+        if (departed) {
+            return;
+        }
+        long idleMillis = (System.nanoTime() - lastHeardNanos) / 1_000_000;
+        if (username == null || heartbeats) {
+            if (idleMillis >= timeoutMillis) {
+                (username == null ? reapedBeforeLogin : reapedSilent).increment();
+                ServerLog.info("client.reaped", "user", username, "reason", username == null ? "login" : "heartbeat",
+                        "idleMillis", idleMillis);
+                close();
+                return;
+            }
+            if (username != null && idleMillis >= intervalMillis) {
+                sendMessage(ServerEvent.ping(System.nanoTime()));
+            }
+        }
+        heartbeatTimer = wheel.schedule(() -> checkAlive(wheel, intervalMillis, timeoutMillis), intervalMillis);
+    }
+
+    // Takes a token from this client's bucket, then the room's
+    private boolean admit() {
+        return admit(0);
+    }
+
+    // A command with a request ID is also told it was throttled, so the
+    // client can retry it
+    private boolean admit(long requestId) {
+        boolean roomFull = false;
+        if (commandBucket.tryAcquire()) {
+            if (room.admitCommand()) {
+                return true;
+            }
+            roomFull = true;
+            throttledByRoom.increment();
+        } else {
+            throttledByClient.increment();
+        }
+
+        if (requestId != 0) {
+            sendMessage(ServerEvent.ack(requestId, WireProtocol.AckStatus.THROTTLED, 0));
+        }
+        long now = System.nanoTime();
+        if (now - lastThrottleNotice >= THROTTLE_NOTICE_INTERVAL_NANOS) {
+            lastThrottleNotice = now;
+            ServerLog.warn("client.throttled", "room", room.getName(), "user", username,
+                    "scope", roomFull ? "room" : "client");
+            sendMessage(ServerEvent.system(roomFull
+                    ? "The project is very busy; some of your messages were not delivered"
+                    : "You are sending too fast; some of your messages were not delivered"));
+        }
+        return false;
+    }
+
+    // Room worker only
+    public void sendUserList() {
+        sendMessage(room.usersFor(this));
+    }
+
+    public boolean supportsPresence() {
+        return presenceDeltas;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public ProjectRoom getRoom() {
+        return room;
+    }
+
+    // For the benchmarks, which put a connection in a room without a login
+    void setRoomForTesting(ProjectRoom room) {
+        this.room = room;
+    }
+
+    // Queues an event for the peer without ever blocking the caller
+    public final void sendMessage(ServerEvent event) {
+        if (event.getType() == ServerEvent.Type.ACK && !holdAck(event)) {
+            return;
+        }
+        if (resyncPending.get()) {
+            return;
+        }
+        releaseHeldAcks();
+        if (event.getType() != ServerEvent.Type.ACK && !outbound.offer(event)) {
+            handleSlowConsumer();
+        }
+        messageQueued();
+    }
+
+    // False, with the client disconnected, if too many ACKs are held already
+    private boolean holdAck(ServerEvent ack) {
+        if (heldAcks.offer(ack)) {
+            return true;
+        }
+        ServerLog.warn("client.slow", "user", username, "policy", "disconnect", "heldAcks", heldAcks.size());
+        close();
+        return false;
+    }
+
+    // Any thread. An ACK that still does not fit goes back to wait, possibly
+    // behind a later one; their order does not matter to the client.
+    private void releaseHeldAcks() {
+        ServerEvent ack;
+        while ((ack = heldAcks.poll()) != null) {
+            if (!outbound.offer(ack)) {
+                holdAck(ack);
+                return;
+            }
+        }
+    }
+
+    // Delivers the coalesced resync; called on the room's worker, so events
+    // broadcast after it are queued behind it again
+    void sendResync(ServerEvent resync) {
+        boolean queued = outbound.offer(resync);
+        resyncPending.set(false);
+        if (!queued) {
+            close();
+            return;
+        }
+        releaseHeldAcks();
+        messageQueued();
+    }
+
+    public int getOutboundQueueDepth() {
+        return outbound.size();
+    }
+
+    // Picks the wire form of the next queued event. Writer thread only.
+    protected byte[] encode(ServerEvent event) {
+        countOut(event);
+        if (event.getType() == ServerEvent.Type.HELLO_OK) {
+            binaryOutput = event.toText().contains(WireProtocol.BINARY);
+            compressOutput = event.toText().contains(WireProtocol.DEFLATE);
+            return event.textBytes();
+        }
+        if (!binaryOutput) {
+            return event.textBytes();
+        }
+        byte[] frames = event.frameBytes();
+        if (!compressOutput || frames.length < compressThreshold) {
+            return frames; // chat and single task changes stay as they are
+        }
+        byte[] compressed = event.compressedFrameBytes();
+        compressionIn.add(frames.length);
+        compressionOut.add(compressed.length);
+        return compressed;
+    }
+
+    // Called by transports once per write to the socket
+    protected static void countSocketWrite() {
+        socketWrites.increment();
+    }
+
+    private static void countOut(ServerEvent event) {
+        if (event.getType() == ServerEvent.Type.BATCH) {
+            for (ServerEvent inner : event.getBatch()) {
+                countOut(inner);
+            }
+        } else {
+            eventsOut[event.getType().ordinal()].increment();
+        }
+    }
+
+    private void handleSlowConsumer() {
+        ServerConfig.SlowConsumerPolicy policy = ProjectServer.getConfig().getSlowConsumerPolicy();
+        slowConsumerActions[policy.ordinal()].increment();
+        switch (policy) {
+            case DROP -> {
+                long dropped = droppedMessages.incrementAndGet();
+                if (dropped == 1 || dropped % 1000 == 0) {
+                    ServerLog.warn("client.slow", "user", username, "policy", "drop", "dropped", dropped);
+                }
+            }
+            case COALESCE -> {
+                // The backlog is obsolete once the client gets the current board,
+                // but a pending protocol switch must still go out first, and
+                // ACKs follow the resync
+                List<ServerEvent> backlog = new ArrayList<>();
+                outbound.drainTo(backlog);
+                for (ServerEvent event : backlog) {
+                    if (event.getType() == ServerEvent.Type.HELLO_OK) {
+                        outbound.offer(event);
+                    } else if (event.getType() == ServerEvent.Type.ACK && !holdAck(event)) {
+                        return;
+                    }
+                }
+                if (room == null) {
+                    close(); // not logged in, so there is no board to resync
+                } else if (resyncPending.compareAndSet(false, true)) {
+                    ServerLog.warn("client.slow", "user", username, "policy", "coalesce");
+                    room.resync(this);
+                }
+            }
+            case DISCONNECT -> {
+                ServerLog.warn("client.slow", "user", username, "policy", "disconnect");
+                close();
+            }
+        }
+    }
+
+    // Hook for transports that need a nudge when the queue becomes non-empty
+    protected void messageQueued() {
+    }
+
+    // Releases the transport and unregisters from the server
+    public abstract void close();
+}
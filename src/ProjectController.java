@@ -1,27 +1,55 @@
+import javafx.animation.Animation;
+import javafx.animation.AnimationTimer;
+import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.*;
+import javafx.scene.control.skin.VirtualFlow;
+import javafx.scene.input.Clipboard;
 import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Inflater;
 
 public class ProjectController implements Initializable {
     
-    @FXML private VBox taskArea;
-    @FXML private ScrollPane scrollPane;
+    @FXML private ListView<TaskItem> taskList;
     @FXML private TextField taskTitleInput;
     @FXML private TextArea taskDescriptionInput;
     @FXML private Button addTaskButton;
@@ -30,26 +58,122 @@ public class ProjectController implements Initializable {
     @FXML private Label userCount;
     @FXML private TextField messageInput;
     @FXML private Button sendMessageButton;
-    @FXML private VBox chatArea;
-    @FXML private ScrollPane chatScrollPane;
+    @FXML private ListView<ChatLine> chatList;
+    @FXML private Button newMessagesButton;
     
     private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    private OutputStream out;
+    private InputStream in;
     private String username;
-    private boolean connected = false;
+    private volatile boolean connected = false;
+    private boolean binaryProtocol = false;
+    // Reused for every compressed frame; only touched by the listener thread
+    private final Inflater inflater = new Inflater();
+    private String serverAddress;
+    private String roomName = "default";
+    
+    // Delta resync state, written by the listener thread
+    private volatile boolean resumeSupported = false;
+    private volatile long syncEpoch = -1;
+    private volatile long lastSeq = 0;
+    
+    // The same, as far as the board on screen has caught up; FX thread only.
+    // The listener thread runs ahead of the UI, so this is what the local
+    // cache records alongside the board.
+    private static final int CACHED_CHAT_LINES = 100;
+    private long boardEpoch = -1;
+    private long boardSeq = 0;
+    private int cachedChatLines = 0;
+    // Set when an optimistic change was refused, so the board no longer
+    // matches boardSeq; cleared by the next full board
+    private boolean boardDiverged = false;
+    // The cache is also saved on every SYNC and this often while connected,
+    // so a crash or a killed app loses at most this much
+    private static final Duration CACHE_SAVE_INTERVAL = Duration.seconds(30);
+    private final Timeline cacheSaver = new Timeline(new KeyFrame(CACHE_SAVE_INTERVAL, e -> {
+        if (connected) {
+            saveCachedBoard();
+        }
+    }));
+    
+    // UI updates decoded by the listener thread, applied on the FX thread a
+    // frame's worth at a time. A full board on connect is thousands of
+    // events; applying them in one go, or posting one runLater each, would
+    // stall the window until the last one is drawn.
+    private static final int MAX_UI_EVENTS_PER_FRAME = 500;
+    private static final long UI_FRAME_BUDGET_NANOS = 8_000_000;
+    private final Queue<Runnable> uiEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean uiDrainScheduled = new AtomicBoolean();
+    private final AnimationTimer uiDrain = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            drainUiEvents();
+        }
+    };
+    
+    // Member list state; FX thread only
+    private long presenceVersion = -1;
+    private final Map<String, Integer> userIndex = new HashMap<>();
+    
+    // The board as of the last event, and the list row for each task, both
+    // by task ID so every event is applied in constant time; FX thread only.
+    // The task and chat lists only build cells for the rows in view, so a
+    // board of thousands of tasks costs a screenful of nodes.
+    private final ProjectBoard board = new ProjectBoard();
+    private final Map<Integer, TaskItem> taskItems = new HashMap<>();
+    private final ObservableList<TaskItem> taskRows = FXCollections.observableArrayList();
+    private final ObservableList<ChatLine> chatLines = FXCollections.observableArrayList();
+    
+    // Auto-scroll. Appending a row only marks its list; the scroll itself
+    // happens at most once per pulse, before layout, however many rows
+    // arrived. A list the user has scrolled up in is left where it is, and
+    // the chat shows how many messages came in below instead.
+    private AutoScroll taskScroll;
+    private AutoScroll chatScroll;
+    private final AnimationTimer scrollCoordinator = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            stop();
+            taskScroll.apply();
+            chatScroll.apply();
+            showNewMessages();
+        }
+    };
+    
+    // Chat history paging; the flag is set by the listener thread, the rest
+    // is FX thread only. oldestChatSeq is 0 until a numbered message arrives.
+    private static final int HISTORY_PAGE = 50;
+    private volatile boolean historySupported = false;
+    private long oldestChatSeq = 0;
+    private boolean olderHistory = true;
+    private boolean historyLoading = false;
+    private boolean keepScrollOnPrepend = false;
+    
+    // Commands sent with a request ID and not yet acknowledged, in the order
+    // they were sent; FX thread only. With ACK, commands are pipelined:
+    // the board updates as soon as one is sent, any number may be in
+    // flight, and a reconnect resends whatever is still pending (the server
+    // drops repeats). IDs start at a random point so they don't repeat those
+    // of an earlier session.
+    private static final KeyCombination PASTE = new KeyCodeCombination(KeyCode.V, KeyCombination.SHORTCUT_DOWN);
+    private static final Duration THROTTLE_RETRY = Duration.seconds(1);
+    private volatile boolean acksSupported = false;
+    private final Map<Long, PendingCommand> pendingCommands = new LinkedHashMap<>();
+    private long nextRequestId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2);
     private Stage primaryStage;
     
     @Override
     public void initialize(URL location, ResourceBundle resources) {
-        // Auto-scroll to bottom when new content is added
-        taskArea.heightProperty().addListener((obs, oldVal, newVal) -> {
-            scrollPane.setVvalue(1.0);
-        });
+        taskList.setItems(taskRows);
+        taskList.setCellFactory(list -> new TaskCell());
+        taskList.setFocusTraversable(false);
         
-        chatArea.heightProperty().addListener((obs, oldVal, newVal) -> {
-            chatScrollPane.setVvalue(1.0);
-        });
+        chatList.setItems(chatLines);
+        chatList.setCellFactory(list -> new ChatCell());
+        chatList.setFocusTraversable(false);
+        
+        taskScroll = new AutoScroll(taskList);
+        chatScroll = new AutoScroll(chatList);
         
         // Initially disable input until connected
         taskTitleInput.setDisable(true);
@@ -62,8 +186,20 @@ public class ProjectController implements Initializable {
         taskTitleInput.setOnKeyPressed(this::handleTaskKeyPressed);
         messageInput.setOnKeyPressed(this::handleMessageKeyPressed);
         
+        // Pasting several lines into the title adds a task per line
+        taskTitleInput.addEventFilter(KeyEvent.KEY_PRESSED, event -> {
+            String pasted = PASTE.match(event) ? Clipboard.getSystemClipboard().getString() : null;
+            if (pasted != null && pasted.contains("\n")) {
+                event.consume();
+                addTasks(pasted.lines().map(String::trim).filter(line -> !line.isEmpty()).toList());
+            }
+        });
+        
         connectionStatus.setText("Disconnected");
         connectionStatus.getStyleClass().add("status-disconnected");
+        
+        cacheSaver.setCycleCount(Animation.INDEFINITE);
+        cacheSaver.play();
     }
     
     public void setPrimaryStage(Stage stage) {
@@ -89,7 +225,7 @@ public class ProjectController implements Initializable {
             if (usernameResult.isPresent()) {
                 String username = usernameResult.get().trim();
                 if (!username.isEmpty()) {
-                    connectToServer(serverAddress, username);
+                    connectToServer(serverAddress, username, askRoomName());
                 } else {
                     showConnectionDialog(); // Retry if empty username
                 }
@@ -101,36 +237,50 @@ public class ProjectController implements Initializable {
         }
     }
     
-    private void connectToServer(String serverAddress, String username) {
-        try {
-            socket = new Socket(serverAddress, 12345);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            
-            this.username = username;
-            connected = true;
-            
-            Platform.runLater(() -> {
-                connectionStatus.setText("Connected to " + serverAddress);
-                connectionStatus.getStyleClass().removeAll("status-disconnected");
-                connectionStatus.getStyleClass().add("status-connected");
-                taskTitleInput.setDisable(false);
-                taskDescriptionInput.setDisable(false);
-                addTaskButton.setDisable(false);
-                messageInput.setDisable(false);
-                sendMessageButton.setDisable(false);
-                primaryStage.setTitle("Project Manager - " + username);
-            });
-            
-            // Start listening for messages
-            Thread messageListener = new Thread(this::listenForMessages);
-            messageListener.setDaemon(true);
-            messageListener.start();
-            
-            // Send username to server
-            out.println("USERNAME:" + username);
+    // Asks until the name is one the server accepts, so the window title and
+    // the local cache always match the project actually joined. Leaving it
+    // empty joins the default project.
+    private String askRoomName() {
+        while (true) {
+            TextInputDialog roomDialog = new TextInputDialog(roomName);
+            roomDialog.setTitle("Project");
+            roomDialog.setHeaderText("Choose a Project");
+            roomDialog.setContentText("Project name:");
             
+            String room = roomDialog.showAndWait().map(String::trim).orElse("");
+            if (room.isEmpty()) {
+                return "default";
+            }
+            if (WireProtocol.isValidRoomName(room)) {
+                return room;
+            }
+            Alert alert = new Alert(Alert.AlertType.WARNING);
+            alert.setTitle("Invalid Project");
+            alert.setHeaderText("Project names can only contain letters, digits, '-' and '_'");
+            alert.showAndWait();
+        }
+    }
+    
+    private void connectToServer(String serverAddress, String username, String roomName) {
+        this.serverAddress = serverAddress;
+        this.username = username;
+        this.roomName = roomName;
+        
+        // Show the project as we last saw it straight away; the connection
+        // then resumes from there, or replaces it if the server can't
+        showCachedBoard();
+        
+        // Connect and then listen for messages off the FX thread
+        Thread messageListener = new Thread(this::connectAndListen);
+        messageListener.setDaemon(true);
+        messageListener.start();
+    }
+    
+    private void connectAndListen() {
+        try {
+            openConnection();
         } catch (IOException e) {
+            closeSocket();
             Platform.runLater(() -> {
                 Alert alert = new Alert(Alert.AlertType.ERROR);
                 alert.setTitle("Connection Error");
@@ -139,50 +289,409 @@ public class ProjectController implements Initializable {
                 alert.showAndWait();
                 showConnectionDialog(); // Retry connection
             });
+            return;
+        }
+        connected = true;
+        
+        post(() -> {
+            showConnected();
+            primaryStage.setTitle("Project Manager - " + username + " @ " + roomName);
+            // Older servers send the board without a reset first
+            if (!resumeSupported) {
+                clearBoard();
+            }
+        });
+        
+        sendLogin();
+        
+        // What was said before we joined
+        if (historySupported) {
+            post(() -> {
+                historyLoading = true;
+                sendHistoryBefore(0);
+            });
         }
+        
+        listenForMessages();
     }
     
-    private void listenForMessages() {
+    private void openConnection() throws IOException {
+        // Presence versions are per server session; the next join sends a list
+        post(() -> presenceVersion = -1);
+        socket = new Socket(serverAddress, 12345);
+        out = new BufferedOutputStream(socket.getOutputStream());
+        in = new BufferedInputStream(socket.getInputStream());
+        negotiateProtocol();
+        
+        // Ask for just the board events we missed since the last connection
+        if (resumeSupported && syncEpoch >= 0) {
+            send("RESUME:" + syncEpoch + ":" + lastSeq,
+                 new WireProtocol.FrameBuilder(WireProtocol.CMD_RESUME).varlong(syncEpoch).varlong(lastSeq).finish());
+        }
+    }
+    
+    private void sendLogin() {
+        send("ROOM:" + roomName,
+             new WireProtocol.FrameBuilder(WireProtocol.CMD_ROOM).string(roomName).finish());
+        send("USERNAME:" + username,
+             new WireProtocol.FrameBuilder(WireProtocol.CMD_USERNAME).string(username).finish());
+    }
+    
+    // Offers the binary protocol and delta resync. Servers that predate them
+    // never answer the HELLO, so after a short wait we carry on in text mode.
+    private void negotiateProtocol() throws IOException {
+        binaryProtocol = false;
+        resumeSupported = false;
+        historySupported = false;
+        acksSupported = false;
+        send(WireProtocol.HELLO + WireProtocol.BINARY + "," + WireProtocol.RESUME + "," + WireProtocol.PRESENCE
+                + "," + WireProtocol.HEARTBEAT + "," + WireProtocol.DEFLATE + "," + WireProtocol.HISTORY
+                + "," + WireProtocol.ACK, null);
+        socket.setSoTimeout(2000);
         try {
+            ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+            String line;
+            while ((line = WireProtocol.readLine(in, lineBuffer)) != null) {
+                if (line.startsWith(WireProtocol.HELLO_OK)) {
+                    List<String> granted = Arrays.asList(line.substring(WireProtocol.HELLO_OK.length()).split(","));
+                    resumeSupported = granted.contains(WireProtocol.RESUME);
+                    binaryProtocol = granted.contains(WireProtocol.BINARY);
+                    historySupported = granted.contains(WireProtocol.HISTORY);
+                    acksSupported = granted.contains(WireProtocol.ACK);
+                    break;
+                }
+                handleServerMessage(line);
+            }
+        } catch (SocketTimeoutException e) {
+            // Old server; stay in text mode
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+    
+    // Reads until the connection drops, then keeps reconnecting until it is
+    // back or the user disconnects
+    private void listenForMessages() {
+        while (connected) {
+            try {
+                readMessages();
+            } catch (IOException e) {
+                // Reconnect below
+            }
+            if (!connected) {
+                break;
+            }
+            
+            post(() -> {
+                addSystemMessage("Connection lost to server, reconnecting...");
+                showDisconnected();
+            });
+            if (reconnect()) {
+                post(() -> {
+                    showConnected();
+                    resendPending();
+                });
+            }
+        }
+    }
+    
+    private void readMessages() throws IOException {
+        if (binaryProtocol) {
+            ByteBuffer frame = ByteBuffer.allocate(1024);
+            while (connected && (frame = WireProtocol.readFrame(in, frame)) != null) {
+                handleServerFrame(frame);
+            }
+        } else {
+            ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
             String message;
-            while (connected && (message = in.readLine()) != null) {
-                final String finalMessage = message;
-                Platform.runLater(() -> handleServerMessage(finalMessage));
+            while (connected && (message = WireProtocol.readLine(in, lineBuffer)) != null) {
+                if (message.startsWith("PING:")) {
+                    try {
+                        sendPong(Long.parseLong(message.substring(5)));
+                    } catch (NumberFormatException e) {
+                        System.err.println("Bad ping: " + message);
+                    }
+                    continue;
+                }
+                handleServerMessage(message);
+                trackSequence(message);
             }
-        } catch (IOException e) {
-            if (connected) {
-                Platform.runLater(() -> {
-                    addSystemMessage("Connection lost to server");
-                    connectionStatus.setText("Disconnected");
-                    connectionStatus.getStyleClass().removeAll("status-connected");
-                    connectionStatus.getStyleClass().add("status-disconnected");
-                    taskTitleInput.setDisable(true);
-                    taskDescriptionInput.setDisable(true);
-                    addTaskButton.setDisable(true);
-                    messageInput.setDisable(true);
-                    sendMessageButton.setDisable(true);
+        }
+    }
+    
+    // Retries with exponential backoff; returns false if the user gave up
+    private boolean reconnect() {
+        closeSocket();
+        long delay = 1000;
+        while (connected) {
+            try {
+                Thread.sleep(delay);
+                openConnection();
+                sendLogin();
+                return true;
+            } catch (IOException e) {
+                closeSocket();
+                delay = Math.min(delay * 2, 30000);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+    
+    // Remembers how far our board is current, so a reconnect can resume from
+    // there. Runs on the listener thread as messages arrive, after the
+    // message's own UI update has been posted.
+    private void trackSequence(String message) {
+        if (!resumeSupported) {
+            return;
+        }
+        try {
+            if (message.startsWith("SYNC:")) {
+                String[] parts = message.substring(5).split(":");
+                trackSync(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+            } else if (message.startsWith("TASK_")) {
+                long seq = Long.parseLong(message.substring(message.lastIndexOf('|') + 1));
+                lastSeq = Math.max(lastSeq, seq);
+                post(() -> boardSeq = Math.max(boardSeq, seq));
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Bad sequence in: " + message);
+        }
+    }
+    
+    private void showConnected() {
+        connectionStatus.setText("Connected to " + serverAddress);
+        connectionStatus.getStyleClass().removeAll("status-disconnected");
+        connectionStatus.getStyleClass().add("status-connected");
+        taskTitleInput.setDisable(false);
+        taskDescriptionInput.setDisable(false);
+        addTaskButton.setDisable(false);
+        messageInput.setDisable(false);
+        sendMessageButton.setDisable(false);
+    }
+    
+    private void showDisconnected() {
+        connectionStatus.setText("Disconnected");
+        connectionStatus.getStyleClass().removeAll("status-connected");
+        connectionStatus.getStyleClass().add("status-disconnected");
+        taskTitleInput.setDisable(true);
+        taskDescriptionInput.setDisable(true);
+        addTaskButton.setDisable(true);
+        messageInput.setDisable(true);
+        sendMessageButton.setDisable(true);
+    }
+    
+    // Decodes a frame on the listener thread; only the UI update is posted
+    private void handleServerFrame(ByteBuffer frame) {
+        byte type = frame.get();
+        switch (type) {
+            case WireProtocol.EVT_SYSTEM -> {
+                String text = WireProtocol.readString(frame);
+                post(() -> addSystemMessage(text));
+            }
+            case WireProtocol.EVT_MESSAGE -> {
+                String sender = WireProtocol.readString(frame);
+                String text = WireProtocol.readString(frame);
+                long seq = frame.hasRemaining() ? WireProtocol.readVarlong(frame) : 0;
+                post(() -> {
+                    noteChatSeq(seq);
+                    addChatMessage(sender + ": " + text);
                 });
             }
+            case WireProtocol.EVT_USERS -> {
+                int count = WireProtocol.readVarint(frame);
+                List<String> users = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    users.add(WireProtocol.readString(frame));
+                }
+                post(() -> updateUserList(users));
+            }
+            case WireProtocol.EVT_PRESENCE -> {
+                long version = WireProtocol.readVarlong(frame);
+                int count = WireProtocol.readVarint(frame);
+                List<String> users = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    users.add(WireProtocol.readString(frame));
+                }
+                post(() -> onPresence(users, version));
+            }
+            case WireProtocol.EVT_USER_JOINED -> {
+                String user = WireProtocol.readString(frame);
+                long version = WireProtocol.readVarlong(frame);
+                post(() -> onUserJoined(user, version));
+            }
+            case WireProtocol.EVT_USER_LEFT -> {
+                String user = WireProtocol.readString(frame);
+                long version = WireProtocol.readVarlong(frame);
+                post(() -> onUserLeft(user, version));
+            }
+            case WireProtocol.EVT_TASK_ADDED -> {
+                int taskId = WireProtocol.readVarint(frame);
+                String title = WireProtocol.readString(frame);
+                String description = WireProtocol.readString(frame);
+                String assignedBy = WireProtocol.readString(frame);
+                String status = TaskStatus.values()[WireProtocol.readVarint(frame)].name();
+                String completedBy = WireProtocol.readString(frame);
+                postBoardEvent(WireProtocol.readVarlong(frame),
+                        () -> onTaskAdded(taskId, title, description, assignedBy, status, completedBy));
+            }
+            case WireProtocol.EVT_TASK_COMPLETED -> {
+                int taskId = WireProtocol.readVarint(frame);
+                String title = WireProtocol.readString(frame);
+                String completedBy = WireProtocol.readString(frame);
+                postBoardEvent(WireProtocol.readVarlong(frame), () -> onTaskCompleted(taskId, title, completedBy));
+            }
+            case WireProtocol.EVT_TASK_DELETED -> {
+                int taskId = WireProtocol.readVarint(frame);
+                String title = WireProtocol.readString(frame);
+                String deletedBy = WireProtocol.readString(frame);
+                postBoardEvent(WireProtocol.readVarlong(frame), () -> onTaskDeleted(taskId, title, deletedBy));
+            }
+            case WireProtocol.EVT_PING -> sendPong(WireProtocol.readVarlong(frame));
+            case WireProtocol.EVT_ACK -> {
+                long requestId = WireProtocol.readVarlong(frame);
+                WireProtocol.AckStatus status = WireProtocol.AckStatus.values()[WireProtocol.readVarint(frame)];
+                int result = WireProtocol.readVarint(frame);
+                post(() -> onAck(requestId, status, result));
+            }
+            case WireProtocol.EVT_HISTORY -> {
+                boolean more = WireProtocol.readVarint(frame) != 0;
+                int count = WireProtocol.readVarint(frame);
+                long[] seqs = new long[count];
+                String[] messages = new String[count];
+                for (int i = 0; i < count; i++) {
+                    seqs[i] = WireProtocol.readVarlong(frame);
+                    String sender = WireProtocol.readString(frame);
+                    messages[i] = sender + ": " + WireProtocol.readString(frame);
+                }
+                post(() -> onHistory(seqs, messages, more));
+            }
+            case WireProtocol.EVT_COMPRESSED -> {
+                ByteBuffer frames = WireProtocol.inflateFrames(frame, inflater);
+                while (frames.hasRemaining()) {
+                    int length = WireProtocol.peekFrame(frames);
+                    if (length < 0) {
+                        throw new IllegalArgumentException("Truncated frame inside compressed frame");
+                    }
+                    int end = frames.position() + length;
+                    handleServerFrame(frames.limit(end));
+                    frames.limit(frames.capacity()).position(end);
+                }
+            }
+            case WireProtocol.EVT_SYNC_RESET -> post(this::clearBoard);
+            case WireProtocol.EVT_SYNC -> trackSync(WireProtocol.readVarlong(frame), WireProtocol.readVarlong(frame));
+            default -> System.err.println("Unknown frame type from server: " + type);
+        }
+    }
+    
+    // A numbered board event; the board on screen is current to seq once it
+    // has been applied
+    private void postBoardEvent(long seq, Runnable event) {
+        lastSeq = Math.max(lastSeq, seq);
+        post(() -> {
+            event.run();
+            boardSeq = Math.max(boardSeq, seq);
+        });
+    }
+    
+    private void trackSync(long epoch, long seq) {
+        syncEpoch = epoch;
+        lastSeq = seq;
+        post(() -> {
+            boardEpoch = epoch;
+            boardSeq = seq;
+            saveCachedBoard();
+        });
+    }
+    
+    // Any thread. Queues a UI update behind everything already decoded, and
+    // wakes the drain if it is idle.
+    private void post(Runnable event) {
+        uiEvents.add(event);
+        if (uiDrainScheduled.compareAndSet(false, true)) {
+            Platform.runLater(uiDrain::start);
         }
     }
     
+    // FX thread, once per pulse while events are waiting. Stops after the
+    // cap or the time budget so the frame still gets drawn; the rest waits
+    // for the next pulse.
+    private void drainUiEvents() {
+        long start = System.nanoTime();
+        for (int i = 0; i < MAX_UI_EVENTS_PER_FRAME; i++) {
+            Runnable event = uiEvents.poll();
+            if (event == null) {
+                uiDrain.stop();
+                uiDrainScheduled.set(false);
+                // Something posted since the poll found nothing would wait forever
+                if (!uiEvents.isEmpty() && uiDrainScheduled.compareAndSet(false, true)) {
+                    uiDrain.start();
+                }
+                return;
+            }
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                // One bad update must not stop the drain; the timer would not restart
+                System.err.println("Error applying server update: " + e);
+            }
+            if (System.nanoTime() - start > UI_FRAME_BUDGET_NANOS) {
+                return;
+            }
+        }
+    }
+    
+    // Parses a text message on the listener thread, like handleServerFrame.
+    // A malformed message is skipped rather than ending the connection.
     private void handleServerMessage(String message) {
-        if (message.startsWith("SYSTEM:")) {
-            addSystemMessage(message.substring(7));
-        } else if (message.startsWith("MESSAGE:")) {
-            String chatMessage = message.substring(8);
-            addChatMessage(chatMessage);
-        } else if (message.startsWith("USERS:")) {
-            updateUserList(message.substring(6));
-        } else if (message.startsWith("TASK_ADDED:")) {
-            handleTaskAdded(message.substring(11));
-        } else if (message.startsWith("TASK_COMPLETED:")) {
-            handleTaskCompleted(message.substring(15));
-        } else if (message.startsWith("TASK_DELETED:")) {
-            handleTaskDeleted(message.substring(13));
+        try {
+            if (message.startsWith("SYSTEM:")) {
+                String text = message.substring(7);
+                post(() -> addSystemMessage(text));
+            } else if (message.startsWith("MESSAGE:")) {
+                String chatMessage = message.substring(8);
+                post(() -> addChatMessage(chatMessage));
+            } else if (message.startsWith("USERS:")) {
+                List<String> users = parseUserList(message.substring(6));
+                post(() -> updateUserList(users));
+            } else if (message.startsWith("PRESENCE:")) {
+                String presence = message.substring(9);
+                int separator = presence.indexOf('|');
+                List<String> users = parseUserList(presence.substring(separator + 1));
+                long version = Long.parseLong(presence.substring(0, separator));
+                post(() -> onPresence(users, version));
+            } else if (message.startsWith("USER_JOINED:")) {
+                String delta = message.substring(12);
+                int separator = delta.lastIndexOf('|');
+                String user = delta.substring(0, separator);
+                long version = Long.parseLong(delta.substring(separator + 1));
+                post(() -> onUserJoined(user, version));
+            } else if (message.startsWith("USER_LEFT:")) {
+                String delta = message.substring(10);
+                int separator = delta.lastIndexOf('|');
+                String user = delta.substring(0, separator);
+                long version = Long.parseLong(delta.substring(separator + 1));
+                post(() -> onUserLeft(user, version));
+            } else if (message.startsWith("TASK_ADDED:")) {
+                handleTaskAdded(message.substring(11));
+            } else if (message.startsWith("TASK_COMPLETED:")) {
+                handleTaskCompleted(message.substring(15));
+            } else if (message.startsWith("TASK_DELETED:")) {
+                handleTaskDeleted(message.substring(13));
+            } else if (message.startsWith("SYNC_RESET:")) {
+                // Server dropped our backlog; a full board follows
+                post(this::clearBoard);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Bad message from server: " + message);
         }
     }
     
+    private static List<String> parseUserList(String names) {
+        return names.isEmpty() ? List.of() : Arrays.asList(names.split(","));
+    }
+    
     private void handleTaskAdded(String taskData) {
         String[] parts = taskData.split("\\|");
         if (parts.length >= 5) {
@@ -193,7 +702,21 @@ public class ProjectController implements Initializable {
             String status = parts[4];
             String completedBy = parts.length > 5 ? parts[5] : "";
             
-            addTaskToUI(taskId, title, description, assignedBy, status, completedBy);
+            post(() -> onTaskAdded(taskId, title, description, assignedBy, status, completedBy));
+        }
+    }
+    
+    private void onTaskAdded(int taskId, String title, String description, String assignedBy, String status, String completedBy) {
+        ProjectTask task = board.put(taskId, title, description, assignedBy, TaskStatus.valueOf(status), completedBy);
+        TaskItem item = taskItems.get(taskId);
+        if (item == null) {
+            item = new TaskItem(task);
+            taskItems.put(taskId, item);
+            addTaskRow(item);
+        } else {
+            // A task we already show (a resync, or our own placeholder) is
+            // redrawn where it is rather than duplicated
+            item.task.set(task);
         }
     }
     
@@ -204,11 +727,15 @@ public class ProjectController implements Initializable {
             String title = parts[1];
             String completedBy = parts[2];
             
-            addSystemMessage("Task completed: \"" + title + "\" by " + completedBy);
-            updateTaskStatus(taskId, "COMPLETED", completedBy);
+            post(() -> onTaskCompleted(taskId, title, completedBy));
         }
     }
     
+    private void onTaskCompleted(int taskId, String title, String completedBy) {
+        addSystemMessage("Task completed: \"" + title + "\" by " + completedBy);
+        updateTaskStatus(taskId, completedBy);
+    }
+    
     private void handleTaskDeleted(String taskData) {
         String[] parts = taskData.split("\\|");
         if (parts.length >= 3) {
@@ -216,68 +743,117 @@ public class ProjectController implements Initializable {
             String title = parts[1];
             String deletedBy = parts[2];
             
-            addSystemMessage("Task deleted: \"" + title + "\" by " + deletedBy);
-            removeTaskFromUI(taskId);
+            post(() -> onTaskDeleted(taskId, title, deletedBy));
         }
     }
     
-    private void updateTaskStatus(int taskId, String status, String completedBy) {
-        // Find and update the task in the UI
-        for (int i = 0; i < taskArea.getChildren().size(); i++) {
-            if (taskArea.getChildren().get(i) instanceof VBox) {
-                VBox taskBox = (VBox) taskArea.getChildren().get(i);
-                if (taskBox.getUserData() != null && taskBox.getUserData().equals(taskId)) {
-                    // Update the task box to show completed status
-                    taskBox.getStyleClass().removeAll("task-pending");
-                    taskBox.getStyleClass().add("task-completed");
-                    
-                    // Update the buttons
-                    for (int j = 0; j < taskBox.getChildren().size(); j++) {
-                        if (taskBox.getChildren().get(j) instanceof HBox) {
-                            HBox buttonBox = (HBox) taskBox.getChildren().get(j);
-                            buttonBox.getChildren().clear();
-                            
-                            Label completedLabel = new Label("✓ Completed by " + completedBy);
-                            completedLabel.getStyleClass().add("completed-label");
-                            buttonBox.getChildren().add(completedLabel);
-                        }
-                    }
-                    break;
-                }
-            }
+    private void onTaskDeleted(int taskId, String title, String deletedBy) {
+        addSystemMessage("Task deleted: \"" + title + "\" by " + deletedBy);
+        removeTaskFromUI(taskId);
+    }
+    
+    private void updateTaskStatus(int taskId, String completedBy) {
+        ProjectTask task = board.complete(taskId, completedBy);
+        TaskItem item = taskItems.get(taskId);
+        if (task != null && item != null) {
+            item.task.set(task);
         }
     }
     
     private void removeTaskFromUI(int taskId) {
-        taskArea.getChildren().removeIf(node -> {
-            if (node instanceof VBox) {
-                VBox taskBox = (VBox) node;
-                return taskBox.getUserData() != null && taskBox.getUserData().equals(taskId);
-            }
-            return false;
-        });
+        board.remove(taskId);
+        TaskItem item = taskItems.remove(taskId);
+        if (item != null) {
+            taskRows.remove(item);
+        }
     }
     
-    private void updateUserList(String userListString) {
-        userList.getItems().clear();
-        if (!userListString.isEmpty()) {
-            String[] users = userListString.split(",");
-            for (String user : users) {
-                userList.getItems().add(user);
+    private void clearBoard() {
+        board.clear();
+        boardEpoch = -1;
+        boardSeq = 0;
+        boardDiverged = false;
+        taskItems.clear();
+        taskRows.clear();
+        // Tasks still waiting for their ACK are not on the server's board
+        // yet; their placeholders stay until settlePlaceholder decides
+        for (PendingCommand command : pendingCommands.values()) {
+            if (command.placeholder != null) {
+                taskRows.add(command.placeholder);
             }
-            userCount.setText(users.length + " users online");
-        } else {
-            userCount.setText("0 users online");
         }
     }
     
+    private void addTaskRow(TaskItem item) {
+        taskScroll.append();
+        taskRows.add(item);
+    }
+    
+    private void updateUserList(List<String> users) {
+        userList.getItems().setAll(users);
+        userIndex.clear();
+        for (int i = 0; i < users.size(); i++) {
+            userIndex.put(users.get(i), i);
+        }
+        userCount.setText(users.size() + " users online");
+    }
+    
+    // Versioned presence: a full list on join, then one delta per join or
+    // leave. A delta we already have is ignored; one that skips a version
+    // means something was dropped, so we ask for the list again.
+    private void onPresence(List<String> users, long version) {
+        if (version < presenceVersion) {
+            return;
+        }
+        presenceVersion = version;
+        updateUserList(users);
+    }
+    
+    private void onUserJoined(String user, long version) {
+        if (acceptPresenceDelta(version) && !userIndex.containsKey(user)) {
+            userIndex.put(user, userList.getItems().size());
+            userList.getItems().add(user);
+            userCount.setText(userIndex.size() + " users online");
+        }
+    }
+    
+    private void onUserLeft(String user, long version) {
+        if (!acceptPresenceDelta(version)) {
+            return;
+        }
+        Integer index = userIndex.remove(user);
+        if (index == null) {
+            return;
+        }
+        // Swap the last entry into the hole so removal stays O(1)
+        List<String> items = userList.getItems();
+        String last = items.remove(items.size() - 1);
+        if (index < items.size()) {
+            items.set(index, last);
+            userIndex.put(last, index);
+        }
+        userCount.setText(userIndex.size() + " users online");
+    }
+    
+    private boolean acceptPresenceDelta(long version) {
+        if (version <= presenceVersion) {
+            return false;
+        }
+        if (version != presenceVersion + 1) {
+            send("GET_USERS:", new WireProtocol.FrameBuilder(WireProtocol.CMD_GET_USERS).finish());
+            return false;
+        }
+        presenceVersion = version;
+        return true;
+    }
+    
     @FXML
     private void handleAddTask() {
         String title = taskTitleInput.getText().trim();
         String description = taskDescriptionInput.getText().trim();
         
         if (!title.isEmpty() && connected) {
-            out.println("ADD_TASK:" + title + "|" + description);
+            submitAddTask(title, description, true);
             taskTitleInput.clear();
             taskDescriptionInput.clear();
         } else if (title.isEmpty()) {
@@ -288,12 +864,36 @@ public class ProjectController implements Initializable {
         }
     }
     
+    // Sends every task in one write; their placeholders show straight away
+    // and the server's answers come back in any order
+    private void addTasks(List<String> titles) {
+        if (titles.isEmpty() || !connected) {
+            return;
+        }
+        String description = taskDescriptionInput.getText().trim();
+        for (String title : titles) {
+            submitAddTask(title, description, false);
+        }
+        flush();
+        taskTitleInput.clear();
+        taskDescriptionInput.clear();
+    }
+    
+    private void submitAddTask(String title, String description, boolean flush) {
+        PendingCommand command = submit("ADD_TASK:" + title + "|" + description,
+                new WireProtocol.FrameBuilder(WireProtocol.CMD_ADD_TASK).string(title).string(description), flush);
+        if (command != null) {
+            command.placeholder = new TaskItem(new ProjectTask(0, title, description, username));
+            addTaskRow(command.placeholder);
+        }
+    }
+    
     @FXML
     private void handleSendMessage() {
         String message = messageInput.getText().trim();
         if (!message.isEmpty() && connected) {
             // Don't add the message locally - let the server broadcast it back
-            out.println("MESSAGE:" + message);
+            submit("MESSAGE:" + message, new WireProtocol.FrameBuilder(WireProtocol.CMD_MESSAGE).string(message), true);
             messageInput.clear();
         }
     }
@@ -310,120 +910,345 @@ public class ProjectController implements Initializable {
         }
     }
     
-    private void addTaskToUI(int taskId, String title, String description, String assignedBy, String status, String completedBy) {
-        VBox taskBox = new VBox(5);
-        taskBox.setUserData(taskId);
-        taskBox.setPadding(new Insets(10));
-        taskBox.getStyleClass().add(status.equals("COMPLETED") ? "task-completed" : "task-pending");
+    private void confirmDelete(ProjectTask task) {
+        Alert confirmAlert = new Alert(Alert.AlertType.CONFIRMATION);
+        confirmAlert.setTitle("Delete Task");
+        confirmAlert.setHeaderText("Are you sure you want to delete this task?");
+        confirmAlert.setContentText("Task: " + task.getTitle());
         
-        Label titleLabel = new Label("Task #" + taskId + ": " + title);
-        titleLabel.getStyleClass().add("task-title");
-        
-        Label descriptionLabel = new Label(description);
-        descriptionLabel.setWrapText(true);
-        descriptionLabel.getStyleClass().add("task-description");
-        
-        Label assignedLabel = new Label("Assigned by: " + assignedBy);
-        assignedLabel.getStyleClass().add("task-assigned");
-        
-        HBox buttonBox = new HBox(10);
-        buttonBox.setAlignment(Pos.CENTER_LEFT);
+        Optional<ButtonType> result = confirmAlert.showAndWait();
+        if (result.isPresent() && result.get() == ButtonType.OK) {
+            sendDeleteTask(task.getId());
+        }
+    }
+    
+    private void sendCompleteTask(int taskId) {
+        PendingCommand command = submit("COMPLETE_TASK:" + taskId,
+                new WireProtocol.FrameBuilder(WireProtocol.CMD_COMPLETE_TASK).varint(taskId), true);
+        if (command != null) {
+            command.optimistic = true;
+            command.before = board.get(taskId);
+            updateTaskStatus(taskId, username);
+            command.after = board.get(taskId);
+        }
+    }
+    
+    private void sendDeleteTask(int taskId) {
+        PendingCommand command = submit("DELETE_TASK:" + taskId,
+                new WireProtocol.FrameBuilder(WireProtocol.CMD_DELETE_TASK).varint(taskId), true);
+        if (command != null) {
+            command.optimistic = true;
+            command.before = board.get(taskId);
+            removeTaskFromUI(taskId);
+        }
+    }
+    
+    // Pipelined commands
+    
+    private static final class PendingCommand {
+        final long requestId;
+        final String textCommand; // both forms carry the request ID
+        final byte[] frame;
+        TaskItem placeholder;     // ADD_TASK only, until the task is numbered
+        boolean optimistic;       // applied to the board before the server confirmed it
+        ProjectTask before;       // the task as shown before an optimistic change
+        ProjectTask after;        // and as that change left it (null once deleted)
         
-        if (status.equals("PENDING")) {
-            Button completeButton = new Button("Mark Complete");
-            completeButton.getStyleClass().add("complete-button");
-            completeButton.setOnAction(e -> {
-                out.println("COMPLETE_TASK:" + taskId);
-            });
-            
-            Button deleteButton = new Button("Delete");
-            deleteButton.getStyleClass().add("delete-button");
-            deleteButton.setOnAction(e -> {
-                Alert confirmAlert = new Alert(Alert.AlertType.CONFIRMATION);
-                confirmAlert.setTitle("Delete Task");
-                confirmAlert.setHeaderText("Are you sure you want to delete this task?");
-                confirmAlert.setContentText("Task: " + title);
-                
-                Optional<ButtonType> result = confirmAlert.showAndWait();
-                if (result.isPresent() && result.get() == ButtonType.OK) {
-                    out.println("DELETE_TASK:" + taskId);
+        PendingCommand(long requestId, String textCommand, byte[] frame) {
+            this.requestId = requestId;
+            this.textCommand = textCommand;
+            this.frame = frame;
+        }
+    }
+    
+    // FX thread. Sends a board or chat command, tagged with a request ID if
+    // the server acknowledges commands; returns the pending entry, or null if
+    // it does not, in which case the broadcast is the only answer.
+    private PendingCommand submit(String textCommand, WireProtocol.FrameBuilder frame, boolean flush) {
+        if (!acksSupported) {
+            write(textCommand, frame.finish(), flush);
+            return null;
+        }
+        long requestId = nextRequestId++;
+        PendingCommand command = new PendingCommand(requestId, "REQ:" + requestId + "|" + textCommand,
+                frame.varlong(requestId).finish());
+        pendingCommands.put(requestId, command);
+        write(command.textCommand, command.frame, flush);
+        return command;
+    }
+    
+    // FX thread. Each command is answered exactly once per attempt.
+    private void onAck(long requestId, WireProtocol.AckStatus status, int result) {
+        PendingCommand command = pendingCommands.get(requestId);
+        if (command == null) {
+            return; // an earlier attempt's answer, after a resend
+        }
+        if (status == WireProtocol.AckStatus.THROTTLED) {
+            PauseTransition retry = new PauseTransition(THROTTLE_RETRY);
+            retry.setOnFinished(e -> {
+                if (connected && pendingCommands.containsKey(requestId)) {
+                    write(command.textCommand, command.frame, true);
                 }
             });
-            
-            buttonBox.getChildren().addAll(completeButton, deleteButton);
+            retry.play();
+            return;
+        }
+        pendingCommands.remove(requestId);
+        if (command.placeholder != null) {
+            settlePlaceholder(command.placeholder, status == WireProtocol.AckStatus.FAILED ? 0 : result);
+        }
+        if (status == WireProtocol.AckStatus.FAILED) {
+            boardDiverged |= command.optimistic;
+            rollBack(command);
+            addSystemMessage("The server could not apply a change; the board shows its current state");
+        }
+    }
+    
+    // Puts back what a refused optimistic change replaced, unless the server
+    // has reported on that task since, in which case its word already stands.
+    // A conflicting broadcast that arrives after the ACK is applied as usual.
+    private void rollBack(PendingCommand command) {
+        ProjectTask before = command.before;
+        if (before == null || board.get(before.getId()) != command.after) {
+            return;
+        }
+        onTaskAdded(before.getId(), before.getTitle(), before.getDescription(), before.getAssignedBy(),
+                before.getStatus().name(), before.getCompletedBy());
+    }
+    
+    // The task now has a number. If its broadcast is already on the board
+    // the placeholder goes; otherwise it becomes the task's row, and the
+    // broadcast fills it in.
+    private void settlePlaceholder(TaskItem placeholder, int taskId) {
+        if (taskId == 0 || taskItems.containsKey(taskId)) {
+            taskRows.remove(placeholder);
         } else {
-            Label completedLabel = new Label("✓ Completed by " + completedBy);
-            completedLabel.getStyleClass().add("completed-label");
-            
-            Button deleteButton = new Button("Delete");
-            deleteButton.getStyleClass().add("delete-button");
-            deleteButton.setOnAction(e -> {
-                Alert confirmAlert = new Alert(Alert.AlertType.CONFIRMATION);
-                confirmAlert.setTitle("Delete Task");
-                confirmAlert.setHeaderText("Are you sure you want to delete this task?");
-                confirmAlert.setContentText("Task: " + title);
-                
-                Optional<ButtonType> result = confirmAlert.showAndWait();
-                if (result.isPresent() && result.get() == ButtonType.OK) {
-                    out.println("DELETE_TASK:" + taskId);
+            taskItems.put(taskId, placeholder);
+        }
+    }
+    
+    // FX thread, after a reconnect. Commands the server already applied are
+    // acknowledged as duplicates and not applied again.
+    private void resendPending() {
+        if (pendingCommands.isEmpty()) {
+            return;
+        }
+        if (!acksSupported) {
+            // The server no longer tracks requests; its board is the truth
+            for (PendingCommand command : pendingCommands.values()) {
+                if (command.placeholder != null) {
+                    taskRows.remove(command.placeholder);
                 }
-            });
-            
-            buttonBox.getChildren().addAll(completedLabel, deleteButton);
+            }
+            pendingCommands.clear();
+            return;
+        }
+        for (PendingCommand command : pendingCommands.values()) {
+            write(command.textCommand, command.frame, false);
+        }
+        flush();
+    }
+    
+    // Chat history
+    
+    // FX thread. Live messages may overlap the first page we asked for, so
+    // only messages older than everything shown are added.
+    private void noteChatSeq(long seq) {
+        if (seq > 0 && (oldestChatSeq == 0 || seq < oldestChatSeq)) {
+            oldestChatSeq = seq;
+        }
+    }
+    
+    private void requestOlderHistory() {
+        if (historySupported && olderHistory && !historyLoading && oldestChatSeq > 1) {
+            historyLoading = true;
+            keepScrollOnPrepend = true;
+            sendHistoryBefore(oldestChatSeq);
+        }
+    }
+    
+    private void sendHistoryBefore(long beforeSeq) {
+        send("HISTORY_BEFORE:" + beforeSeq + "|" + HISTORY_PAGE,
+             new WireProtocol.FrameBuilder(WireProtocol.CMD_HISTORY_BEFORE).varlong(beforeSeq).varint(HISTORY_PAGE).finish());
+    }
+    
+    // FX thread. The page is oldest first and goes in above what is shown.
+    private void onHistory(long[] seqs, String[] messages, boolean more) {
+        historyLoading = false;
+        olderHistory = more;
+        // The server's history replaces the chat we had cached
+        if (cachedChatLines > 0) {
+            chatLines.remove(0, cachedChatLines);
+            cachedChatLines = 0;
+        }
+        List<ChatLine> older = new ArrayList<>(messages.length);
+        long shownFrom = oldestChatSeq;
+        for (int i = 0; i < messages.length; i++) {
+            if (shownFrom == 0 || seqs[i] < shownFrom) {
+                older.add(chatLine(messages[i]));
+                noteChatSeq(seqs[i]);
+            }
+        }
+        boolean keepScroll = keepScrollOnPrepend;
+        keepScrollOnPrepend = false;
+        if (older.isEmpty()) {
+            return;
+        }
+        chatLines.addAll(0, older);
+        // Keep what the user was reading in view, or start at the newest
+        chatList.scrollTo(keepScroll ? older.size() : chatLines.size() - 1);
+    }
+    
+    // Answers the server's heartbeat straight from the listener thread
+    private void sendPong(long token) {
+        send("PONG:" + token, new WireProtocol.FrameBuilder(WireProtocol.CMD_PONG).varlong(token).finish());
+    }
+    
+    // Writes a command in whichever protocol was negotiated
+    private void send(String textCommand, byte[] frame) {
+        write(textCommand, frame, true);
+    }
+    
+    // Without flush, the command waits in the buffer for the next flush, so
+    // a run of commands goes out in as few packets as possible
+    private synchronized void write(String textCommand, byte[] frame, boolean flush) {
+        try {
+            if (binaryProtocol) {
+                out.write(frame);
+            } else {
+                out.write((textCommand + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            if (flush) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Error sending to server: " + e.getMessage());
+        }
+    }
+    
+    private synchronized void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Error sending to server: " + e.getMessage());
         }
-        
-        taskBox.getChildren().addAll(titleLabel, descriptionLabel, assignedLabel, buttonBox);
-        taskArea.getChildren().add(taskBox);
     }
     
     private void addSystemMessage(String message) {
-        HBox messageBox = createChatMessageBox(message, "system-message", Pos.CENTER);
-        chatArea.getChildren().add(messageBox);
+        addChatLine(new ChatLine(message, "system-message", getCurrentTime()));
     }
     
     private void addChatMessage(String message) {
+        addChatLine(chatLine(message));
+    }
+    
+    private void addChatLine(ChatLine line) {
+        chatScroll.append();
+        chatLines.add(line);
+    }
+    
+    private void showNewMessages() {
+        int unseen = chatScroll.unseen;
+        newMessagesButton.setText(unseen == 1 ? "1 new message ↓" : unseen + " new messages ↓");
+        newMessagesButton.setVisible(unseen > 0);
+        newMessagesButton.setManaged(unseen > 0);
+    }
+    
+    @FXML
+    private void handleShowNewMessages() {
+        chatScroll.jumpToEnd();
+        showNewMessages();
+    }
+    
+    private ChatLine chatLine(String message) {
         // Parse the message to see if it's from the current user
         String[] parts = message.split(": ", 2);
         if (parts.length == 2 && parts[0].equals(username)) {
             // This is our own message coming back from server
-            HBox messageBox = createChatMessageBox(message, "user-message", Pos.CENTER_RIGHT);
-            chatArea.getChildren().add(messageBox);
+            return new ChatLine(message, "user-message", getCurrentTime());
         } else {
             // This is from another user
-            HBox messageBox = createChatMessageBox(message, "contact-message", Pos.CENTER_LEFT);
-            chatArea.getChildren().add(messageBox);
+            return new ChatLine(message, "contact-message", getCurrentTime());
         }
     }
     
-    private HBox createChatMessageBox(String message, String styleClass, Pos alignment) {
-        HBox messageBox = new HBox();
-        messageBox.setAlignment(alignment);
-        messageBox.setPadding(new Insets(5, 10, 5, 10));
-        
-        VBox messageBubble = new VBox();
-        messageBubble.getStyleClass().add(styleClass);
-        messageBubble.setPadding(new Insets(8, 12, 8, 12));
-        messageBubble.setMaxWidth(300);
+    private String getCurrentTime() {
+        return LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm"));
+    }
+    
+    public void disconnect() {
+        connected = false;
+        closeSocket();
+        saveCachedBoard();
+    }
+    
+    // Local cache
+    
+    // FX thread. Replaces whatever is shown with the cached copy, if any, and
+    // resumes from where it was current.
+    private void showCachedBoard() {
+        clearBoard();
+        chatLines.clear();
+        oldestChatSeq = 0;
+        olderHistory = true;
+        cachedChatLines = 0;
+        syncEpoch = -1;
+        lastSeq = 0;
         
-        Label messageLabel = new Label(message);
-        messageLabel.setWrapText(true);
-        messageLabel.getStyleClass().add("message-text");
+        BoardCache.Snapshot cached = BoardCache.load(serverAddress, roomName);
+        if (cached == null) {
+            return;
+        }
+        List<TaskItem> rows = new ArrayList<>(cached.tasks().size());
+        for (ProjectTask cachedTask : cached.tasks()) {
+            ProjectTask task = board.put(cachedTask.getId(), cachedTask.getTitle(), cachedTask.getDescription(),
+                    cachedTask.getAssignedBy(), cachedTask.getStatus(), cachedTask.getCompletedBy());
+            TaskItem item = new TaskItem(task);
+            taskItems.put(task.getId(), item);
+            rows.add(item);
+        }
+        taskRows.addAll(0, rows);
         
-        Label timeLabel = new Label(getCurrentTime());
-        timeLabel.getStyleClass().add("time-label");
+        List<ChatLine> lines = new ArrayList<>(cached.chat().size());
+        for (BoardCache.ChatEntry entry : cached.chat()) {
+            lines.add(new ChatLine(entry.text(), entry.styleClass(), entry.time()));
+        }
+        chatLines.setAll(lines);
+        cachedChatLines = lines.size();
         
-        messageBubble.getChildren().addAll(messageLabel, timeLabel);
-        messageBox.getChildren().add(messageBubble);
+        boardEpoch = cached.epoch();
+        boardSeq = cached.seq();
+        syncEpoch = boardEpoch;
+        lastSeq = boardSeq;
         
-        return messageBox;
+        taskList.scrollTo(taskRows.size() - 1);
+        chatList.scrollTo(chatLines.size() - 1);
     }
     
-    private String getCurrentTime() {
-        return LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm"));
+    // FX thread. Placeholders are left out; the server has either applied
+    // them, in which case the resume brings them back, or never will. A
+    // board with optimistic changes the server has not confirmed is saved
+    // without its epoch, so the next connect fetches the whole board rather
+    // than resuming from a state the server never had.
+    private void saveCachedBoard() {
+        if (serverAddress == null) {
+            return;
+        }
+        boolean confirmed = !boardDiverged
+                && pendingCommands.values().stream().noneMatch(command -> command.optimistic);
+        List<BoardCache.ChatEntry> chat = new ArrayList<>(CACHED_CHAT_LINES);
+        for (ChatLine line : chatLines.subList(Math.max(0, chatLines.size() - CACHED_CHAT_LINES), chatLines.size())) {
+            chat.add(new BoardCache.ChatEntry(line.text(), line.styleClass(), line.time()));
+        }
+        try {
+            BoardCache.save(serverAddress, roomName,
+                    new BoardCache.Snapshot(confirmed ? boardEpoch : -1, boardSeq, board.getTasks(), chat));
+        } catch (IOException e) {
+            System.err.println("Error saving project cache: " + e.getMessage());
+        }
     }
     
-    public void disconnect() {
-        connected = false;
+    private void closeSocket() {
         try {
             if (out != null) out.close();
             if (in != null) in.close();
@@ -432,4 +1257,207 @@ public class ProjectController implements Initializable {
             System.err.println("Error closing connection: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+    
+    // List rows
+    
+    // One row of the task board. Events swap in a new task and whichever
+    // cell is showing the row redraws; a task that is still being sent has
+    // ID 0.
+    private static final class TaskItem {
+        final ObjectProperty<ProjectTask> task;
+        
+        TaskItem(ProjectTask task) {
+            this.task = new SimpleObjectProperty<>(task);
+        }
+    }
+    
+    // One chat bubble; the time is when it arrived, not when it is drawn
+    private record ChatLine(String text, String styleClass, String time) {
+        // Ours on the right, others on the left, notices in the middle
+        Pos alignment() {
+            return switch (styleClass) {
+                case "user-message" -> Pos.CENTER_RIGHT;
+                case "contact-message" -> Pos.CENTER_LEFT;
+                default -> Pos.CENTER;
+            };
+        }
+    }
+    
+    // Cells are reused as the list scrolls: each builds its nodes once and
+    // is handed whichever row comes into view
+    private final class TaskCell extends ListCell<TaskItem> {
+        private final VBox taskBox = new VBox(5);
+        private final Label titleLabel = new Label();
+        private final Label descriptionLabel = new Label();
+        private final Label assignedLabel = new Label();
+        private final Label completedLabel = new Label();
+        private final Button completeButton = new Button("Mark Complete");
+        private final Button deleteButton = new Button("Delete");
+        private final HBox buttonBox = new HBox(10);
+        private final ChangeListener<ProjectTask> redraw = (obs, oldTask, newTask) -> showTask(newTask);
+        private TaskItem shown;
+        
+        TaskCell() {
+            taskBox.setPadding(new Insets(10));
+            titleLabel.getStyleClass().add("task-title");
+            descriptionLabel.setWrapText(true);
+            descriptionLabel.getStyleClass().add("task-description");
+            assignedLabel.getStyleClass().add("task-assigned");
+            completedLabel.getStyleClass().add("completed-label");
+            completeButton.getStyleClass().add("complete-button");
+            deleteButton.getStyleClass().add("delete-button");
+            completeButton.setOnAction(e -> sendCompleteTask(getItem().task.get().getId()));
+            deleteButton.setOnAction(e -> confirmDelete(getItem().task.get()));
+            buttonBox.setAlignment(Pos.CENTER_LEFT);
+            taskBox.getChildren().addAll(titleLabel, descriptionLabel, assignedLabel, buttonBox);
+            
+            // Follow the list's width so descriptions wrap instead of scrolling sideways
+            setPrefWidth(0);
+            setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+        }
+        
+        @Override
+        protected void updateItem(TaskItem item, boolean empty) {
+            super.updateItem(item, empty);
+            if (shown != null) {
+                shown.task.removeListener(redraw);
+            }
+            shown = empty ? null : item;
+            if (shown == null) {
+                setGraphic(null);
+                return;
+            }
+            shown.task.addListener(redraw);
+            showTask(shown.task.get());
+            setGraphic(taskBox);
+        }
+        
+        private void showTask(ProjectTask task) {
+            boolean sending = task.getId() == 0;
+            taskBox.getStyleClass().removeAll("task-pending", "task-completed", "task-sending");
+            taskBox.getStyleClass().add(task.getStatus() == TaskStatus.COMPLETED ? "task-completed" : "task-pending");
+            if (sending) {
+                taskBox.getStyleClass().add("task-sending");
+            }
+            
+            titleLabel.setText(sending ? "New task: " + task.getTitle() : "Task #" + task.getId() + ": " + task.getTitle());
+            descriptionLabel.setText(task.getDescription());
+            assignedLabel.setText(sending ? "Sending..." : "Assigned by: " + task.getAssignedBy());
+            
+            if (sending) {
+                buttonBox.getChildren().clear();
+            } else if (task.getStatus() == TaskStatus.PENDING) {
+                buttonBox.getChildren().setAll(completeButton, deleteButton);
+            } else {
+                completedLabel.setText("✓ Completed by " + task.getCompletedBy());
+                buttonBox.getChildren().setAll(completedLabel, deleteButton);
+            }
+        }
+    }
+    
+    private final class ChatCell extends ListCell<ChatLine> {
+        private final HBox messageBox = new HBox();
+        private final VBox messageBubble = new VBox();
+        private final Label messageLabel = new Label();
+        private final Label timeLabel = new Label();
+        
+        ChatCell() {
+            messageBox.setPadding(new Insets(5, 10, 5, 10));
+            messageBubble.setPadding(new Insets(8, 12, 8, 12));
+            messageBubble.setMaxWidth(300);
+            messageLabel.setWrapText(true);
+            messageLabel.getStyleClass().add("message-text");
+            timeLabel.getStyleClass().add("time-label");
+            messageBubble.getChildren().addAll(messageLabel, timeLabel);
+            messageBox.getChildren().add(messageBubble);
+            
+            setPrefWidth(0);
+            setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+        }
+        
+        @Override
+        protected void updateItem(ChatLine line, boolean empty) {
+            super.updateItem(line, empty);
+            if (empty || line == null) {
+                setGraphic(null);
+                return;
+            }
+            messageBox.setAlignment(line.alignment());
+            messageBubble.getStyleClass().setAll(line.styleClass());
+            messageLabel.setText(line.text());
+            timeLabel.setText(line.time());
+            setGraphic(messageBox);
+            
+            // Only rows in view count; the list also sizes rows in a hidden cell
+            if (getParent() == null || !getParent().isVisible()) {
+                return;
+            }
+            // The oldest message coming into view fetches the page before it,
+            // and the newest clears the new messages count
+            if (getIndex() == 0) {
+                requestOlderHistory();
+            }
+            if (getIndex() == chatLines.size() - 1) {
+                chatScroll.caughtUp();
+            }
+        }
+    }
+    
+    // Follows the newest row of a list while the user is there; FX thread
+    private final class AutoScroll {
+        private final ListView<?> list;
+        private VirtualFlow<?> flow;
+        private boolean pending = false;
+        private boolean following = true;
+        private int unseen = 0;
+        
+        AutoScroll(ListView<?> list) {
+            this.list = list;
+        }
+        
+        // Before a row is appended. Whether the user was at the end is read
+        // from the last layout, so only the first append of a pulse asks.
+        void append() {
+            if (!pending) {
+                pending = true;
+                following = showsLastRow();
+                scrollCoordinator.start();
+            }
+            if (!following) {
+                unseen++;
+            }
+        }
+        
+        void apply() {
+            if (pending) {
+                pending = false;
+                if (following) {
+                    list.scrollTo(list.getItems().size() - 1);
+                }
+            }
+        }
+        
+        // The user scrolled back down to the newest row
+        void caughtUp() {
+            if (unseen > 0) {
+                following = true;
+                unseen = 0;
+                scrollCoordinator.start();
+            }
+        }
+        
+        void jumpToEnd() {
+            following = true;
+            unseen = 0;
+            list.scrollTo(list.getItems().size() - 1);
+        }
+        
+        private boolean showsLastRow() {
+            if (flow == null) {
+                flow = (VirtualFlow<?>) list.lookup(".virtual-flow");
+            }
+            IndexedCell<?> last = flow != null ? flow.getLastVisibleCell() : null;
+            return last == null || last.getIndex() >= list.getItems().size() - 1;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+// One named project: its own task board, journal, members, chat stream and
+// resync ring. Rooms share nothing, so teams never see each other's traffic.
+//
+// Each room is pinned to one worker of a shard pool. Everything that orders
+// the room's output (task changes, numbering events, fan-out, joins and
+// leaves) runs on that worker, so it needs no lock, and a busy room only
+// ever occupies its own worker. Task changes reach the journal and the
+// members in the order they were applied, each event built from the task
+// as that change left it.
+public class ProjectRoom {
+    // Per generation of the dedup window
+    private static final int MAX_RECENT_REQUESTS = 100_000;
+
+    private final String name;
+    private final Executor worker;
+    private final TaskStore taskStore = new TaskStore();
+    private final TaskJournal journal;
+    private final Map<String, ProjectConnection> members = new ConcurrentHashMap<>();
+    private final String metricLabels;
+    private final ServerMetrics.Histogram fanOutTime;
+    // Caps the commands the whole room may broadcast, however many members
+    // send them
+    private final TokenBucket commandBucket;
+    // Outcomes of recent commands sent with request IDs, keyed by member,
+    // so retries after a reconnect are recognised too
+    private final DedupWindow recentRequests;
+
+    // Board events for delta resync; only touched on the room's worker. The
+    // epoch tells clients from before a restart that their sequence numbers
+    // no longer apply.
+    private final EventRing eventRing;
+    private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    // Recent chat for members to page back through; room worker only
+    private final ChatHistory chatHistory;
+
+    // Bumped on every join and leave, so clients can spot a missed delta.
+    // Room worker only.
+    private long presenceVersion;
+
+    // Logins on their way in plus members; -1 once the room is closed, after
+    // which it cannot be held again
+    private final AtomicInteger holders = new AtomicInteger();
+
+    private ProjectRoom(String name, Executor worker, Path dataDir, ServerConfig config) throws IOException {
+        this.name = name;
+        this.worker = worker;
+        this.eventRing = new EventRing(config.getResyncWindow());
+        this.chatHistory = new ChatHistory(config.getChatHistory());
+        this.commandBucket = new TokenBucket(config.getRoomRate(), config.getRoomBurst());
+        this.recentRequests = new DedupWindow(config.getDedupWindow() * 1000L, MAX_RECENT_REQUESTS);
+        this.journal = dataDir != null
+                ? TaskJournal.open(dataDir, taskStore, config.getSnapshotEvery(), worker) : null;
+
+        this.metricLabels = ServerMetrics.label("room", name);
+        this.fanOutTime = ServerMetrics.histogram("broadcast_fanout_micros", metricLabels);
+        ServerMetrics.gauge("room_tasks", metricLabels, taskStore::size);
+        ServerMetrics.gauge("room_members", metricLabels, members::size);
+    }
+
+    // Restores the room's board from dataDir (null for memory only)
+    public static ProjectRoom open(String name, Executor worker, Path dataDir, ServerConfig config) throws IOException {
+        return new ProjectRoom(name, worker, dataDir, config);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Lifecycle. ProjectServer holds a room for each login, until that
+    // member leaves, and closes it once it has been idle for a while.
+
+    // False if the room has been closed
+    boolean hold() {
+        int count;
+        do {
+            count = holders.get();
+            if (count < 0) {
+                return false;
+            }
+        } while (!holders.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    // True if that was the last holder
+    boolean release() {
+        return holders.decrementAndGet() == 0;
+    }
+
+    // Room worker only. Writes out anything the journal still holds; for
+    // shutdown, when rooms are not closed one by one.
+    void flushJournal() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    // Room worker only. Closes the room if nobody holds it; the journal is
+    // written out and the room's metrics are dropped.
+    boolean closeIfIdle() {
+        if (!holders.compareAndSet(0, -1)) {
+            return false;
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        ServerMetrics.remove(metricLabels);
+        return true;
+    }
+
+    // Membership
+
+    // Adds the client on the room's worker; its welcome and board catch-up
+    // are queued before any event broadcast after it
+    public void join(ProjectConnection client) {
+        worker.execute(() -> {
+            String username = client.getUsername();
+            members.put(username, client);
+            presenceVersion++;
+            client.onJoined();
+            fanOutPresence(ServerEvent.userJoined(username, presenceVersion), client);
+            fanOut(ServerEvent.system(username + " joined the project"));
+        });
+    }
+
+    public void leave(ProjectConnection client) {
+        worker.execute(() -> {
+            String username = client.getUsername();
+            if (members.remove(username, client)) {
+                presenceVersion++;
+                fanOutPresence(ServerEvent.userLeft(username, presenceVersion), client);
+                fanOut(ServerEvent.system(username + " left the project"));
+            }
+        });
+    }
+
+    // Room worker only. The member list in the form this client understands:
+    // versioned if it negotiated PRESENCE, the legacy USERS line otherwise.
+    ServerEvent usersFor(ProjectConnection client) {
+        return client.supportsPresence()
+                ? ServerEvent.presence(members.keySet(), presenceVersion)
+                : ServerEvent.users(members.keySet());
+    }
+
+    // Sends a fresh member list, for a client that noticed a gap in versions
+    public void sendUsers(ProjectConnection client) {
+        worker.execute(() -> client.sendMessage(usersFor(client)));
+    }
+
+    public List<String> getMemberNames() {
+        return new ArrayList<>(members.keySet());
+    }
+
+    // Fan-out
+
+    // Takes a token for one member command; false if the room is at its limit
+    public boolean admitCommand() {
+        return commandBucket.tryAcquire();
+    }
+
+    // Null if this member's request is new; otherwise what it came to (see
+    // DedupWindow.claim)
+    public Integer claimRequest(String username, long requestId) {
+        return recentRequests.claim(username + '#' + requestId);
+    }
+
+    public void completeRequest(String username, long requestId, int result) {
+        recentRequests.complete(username + '#' + requestId, result);
+    }
+
+    public void broadcast(ServerEvent event) {
+        worker.execute(() -> fanOut(event));
+    }
+
+    // Room worker only. sendMessage only enqueues, so this never waits on a
+    // socket.
+    private void fanOut(ServerEvent event) {
+        long start = System.nanoTime();
+        if (event.isBoardEvent()) {
+            event = eventRing.append(event);
+        } else if (event.getType() == ServerEvent.Type.MESSAGE) {
+            event = chatHistory.append(event);
+        }
+        if (ServerLog.sampled(ServerLog.Level.DEBUG)) {
+            ServerLog.debug("room.broadcast", "room", name, "type", event.getType(), "seq", event.getSeq(),
+                    "members", members.size());
+        }
+        for (ProjectConnection client : members.values()) {
+            client.sendMessage(event);
+        }
+        fanOutTime.recordSince(start);
+    }
+
+    // Room worker only. Deltas go to clients that can apply them; the others
+    // only ever get a list when they join, as before.
+    private void fanOutPresence(ServerEvent event, ProjectConnection subject) {
+        for (ProjectConnection client : members.values()) {
+            if (client != subject && client.supportsPresence()) {
+                client.sendMessage(event);
+            }
+        }
+    }
+
+    // Room worker only. What a joining client needs to bring its board up to
+    // date, as a single queue entry: the events it missed if the ring still
+    // holds them all, otherwise the whole board. Either way it ends with a
+    // SYNC marker.
+    ServerEvent catchUp(long resumeEpoch, long resumeSeq) {
+        if (resumeEpoch == epoch) {
+            List<ServerEvent> missed = eventRing.since(resumeSeq);
+            if (missed != null) {
+                missed.add(ServerEvent.sync(epoch, eventRing.getLastSeq()));
+                return ServerEvent.batch(missed);
+            }
+        }
+        return ServerEvent.batch(boardSnapshot());
+    }
+
+    // Room worker only. SYNC_RESET, every task, then the sequence the board is
+    // current to. The store may already be ahead of that sequence (changes
+    // are applied before they are broadcast), which is fine: clients apply
+    // events idempotently.
+    List<ServerEvent> boardSnapshot() {
+        long seq = eventRing.getLastSeq();
+        List<ServerEvent> events = new ArrayList<>();
+        events.add(ServerEvent.syncReset());
+        for (ProjectTask task : taskStore.snapshot()) {
+            events.add(ServerEvent.taskAdded(task));
+        }
+        events.add(ServerEvent.sync(epoch, seq));
+        return events;
+    }
+
+    // Queues a full resync for a client whose backlog was thrown away
+    public void resync(ProjectConnection client) {
+        worker.execute(() -> {
+            List<ServerEvent> events = boardSnapshot();
+            events.add(usersFor(client));
+            client.sendResync(ServerEvent.batch(events));
+        });
+    }
+
+    // Queues up to limit chat messages older than beforeSeq (0 for the most
+    // recent) for the client, as one HISTORY event
+    public void sendHistory(ProjectConnection client, long beforeSeq, int limit) {
+        worker.execute(() -> {
+            List<ServerEvent> page = chatHistory.before(beforeSeq, limit);
+            boolean more = !page.isEmpty() && chatHistory.hasBefore(page.get(0).getSeq());
+            client.sendMessage(ServerEvent.history(page, more));
+        });
+    }
+
+    // Tasks. Each change is applied on the room's worker; done is called with
+    // the task's ID once it is durable, just before it is broadcast, or with
+    // 0 if it could not be made.
+
+    public void addTask(String title, String description, String assignedBy, IntConsumer done) {
+        worker.execute(() -> {
+            if (!isWritable()) {
+                done.accept(0);
+                return;
+            }
+            taskStore.add(title, description, assignedBy, added ->
+                    commit(TaskJournal.added(added), added.getId(), done, ServerEvent.taskAdded(added)));
+        });
+    }
+
+    public void completeTask(int taskId, String completedBy, IntConsumer done) {
+        worker.execute(() -> {
+            ProjectTask task = isWritable() ? taskStore.complete(taskId, completedBy) : null;
+            if (task == null) {
+                done.accept(0);
+                return;
+            }
+            commit(TaskJournal.completed(task), taskId, done, ServerEvent.taskCompleted(task, completedBy));
+        });
+    }
+
+    public void deleteTask(int taskId, String deletedBy, IntConsumer done) {
+        worker.execute(() -> {
+            ProjectTask task = isWritable() ? taskStore.delete(taskId) : null;
+            if (task == null) {
+                done.accept(0);
+                return;
+            }
+            commit(TaskJournal.deleted(task), taskId, done, ServerEvent.taskDeleted(task, deletedBy));
+        });
+    }
+
+    // Room worker only. Changes that cannot be logged are refused, so the
+    // board never gets ahead of what a restart would bring back.
+    private boolean isWritable() {
+        return journal == null || journal.isWritable();
+    }
+
+    // Room worker only. Acknowledges and broadcasts after the journal's group
+    // commit, or straight away when persistence is off; either way on this
+    // worker, in log order.
+    private void commit(byte[] record, int taskId, IntConsumer done, ServerEvent event) {
+        Runnable onDurable = () -> {
+            done.accept(taskId);
+            fanOut(event);
+        };
+        if (journal != null) {
+            journal.append(record, onDurable);
+        } else {
+            onDurable.run();
+        }
+    }
+
+    public List<ProjectTask> getAllTasks() {
+        return taskStore.snapshot();
+    }
+}
@@ -1,150 +1,287 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import jdk.net.ExtendedSocketOptions;
 
 public class ProjectServer {
-    private static final int PORT = 12345;
-    private static Set<ClientHandler> clients = ConcurrentHashMap.newKeySet();
-    private static Map<String, ClientHandler> usernames = new ConcurrentHashMap<>();
-    private static Map<Integer, ProjectTask> tasks = new ConcurrentHashMap<>();
-    private static AtomicInteger taskIdCounter = new AtomicInteger(1);
+    public static final String DEFAULT_ROOM = "default";
+    
+    private static Set<ProjectConnection> clients = ConcurrentHashMap.newKeySet();
+    private static Map<String, ProjectConnection> usernames = new ConcurrentHashMap<>();
+    private static final Map<String, ProjectRoom> rooms = new ConcurrentHashMap<>();
+    private static final ReentrantLock roomsLock = new ReentrantLock();
+    private static ExecutorService[] roomWorkers;
+    private static TimerWheel timers;
+    private static ServerConfig config = new ServerConfig();
+    
+    private static final ServerMetrics.Counter acceptedConnections =
+            ServerMetrics.counter("connections_accepted_total", "");
     
     public static void main(String[] args) {
-        System.out.println("Project Management Server starting on port " + PORT + "...");
+        try {
+            config = ServerConfig.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(ServerConfig.usage());
+            return;
+        }
         
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Server started successfully!");
+        try {
+            ServerLog.start(config.getLogLevel(), config.getLogSample(), config.getLogFile());
+        } catch (IOException e) {
+            System.err.println("Cannot open log: " + e.getMessage());
+            return;
+        }
+        ServerLog.info("server.starting", "port", config.getPort(), "mode", config.getMode());
+        registerMetrics();
+        
+        roomWorkers = new ExecutorService[config.getRoomWorkers()];
+        for (int i = 0; i < roomWorkers.length; i++) {
+            roomWorkers[i] = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("room-worker-" + i).factory());
+        }
+        
+        Runtime.getRuntime().addShutdownHook(new Thread(ProjectServer::flushRooms, "room-flush"));
+        
+        // Heartbeats and idle rooms. 100 ms ticks; 512 slots cover 51 s
+        // before timers wrap around.
+        timers = new TimerWheel("server-timers", 100, 512);
+        
+        try {
+            // Load the default room up front so a bad data directory fails
+            // fast; this hold is never released, so it stays open
+            getRoom(DEFAULT_ROOM);
+            ServerMetrics.start(config.getAdminPort(), config.getMetricsFile(), config.getMetricsInterval());
+            
+            if (config.getMode() == ServerConfig.Mode.NIO) {
+                new NioServer(config.getPort(), config.getEventLoops()).start();
+            } else {
+                runBlocking(config.getPort(), config.getMode() == ServerConfig.Mode.VIRTUAL);
+            }
+        } catch (IOException e) {
+            ServerLog.error("server.error", "error", e.getMessage());
+        }
+    }
+    
+    // Thread-per-client accept loop, on platform or virtual threads
+    private static void runBlocking(int port, boolean virtualThreads) throws IOException {
+        Thread.Builder virtualThreadBuilder = Thread.ofVirtual().name("client-", 1);
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            ServerLog.info("server.started", "port", port);
             
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("New client connected: " + clientSocket.getInetAddress());
+                ServerLog.info("client.connected", "remote", clientSocket.getInetAddress());
+                enableKeepAlive(clientSocket);
                 
                 ClientHandler clientHandler = new ClientHandler(clientSocket);
-                clients.add(clientHandler);
-                new Thread(clientHandler).start();
+                addClient(clientHandler);
+                if (virtualThreads) {
+                    virtualThreadBuilder.start(clientHandler);
+                } else {
+                    new Thread(clientHandler).start();
+                }
             }
-        } catch (IOException e) {
-            System.err.println("Server error: " + e.getMessage());
         }
     }
     
-    public static synchronized void broadcastMessage(String message, ClientHandler sender) {
-        System.out.println("Broadcasting: " + message);
-        for (ClientHandler client : clients) {
-            client.sendMessage(message);
+    public static ServerConfig getConfig() {
+        return config;
+    }
+    
+    // For the benchmarks, which run the server's classes without main()
+    static void setConfigForTesting(ServerConfig testConfig) {
+        config = testConfig;
+    }
+    
+    public static void addClient(ProjectConnection client) {
+        clients.add(client);
+        acceptedConnections.increment();
+        if (config.getHeartbeatInterval() > 0) {
+            client.startHeartbeats(timers, config.getHeartbeatInterval() * 1000L,
+                    config.getHeartbeatTimeout() * 1000L);
         }
     }
     
-    public static synchronized void removeClient(ClientHandler client) {
-        clients.remove(client);
-        if (client.getUsername() != null) {
-            usernames.remove(client.getUsername());
-            broadcastMessage("SYSTEM:" + client.getUsername() + " left the project", client);
+    // Lets the OS find dead peers among clients that cannot answer pings:
+    // probes start after the heartbeat timeout and give up after 3 misses
+    public static void enableKeepAlive(Socket socket) {
+        try {
+            socket.setKeepAlive(true);
+            if (socket.supportedOptions().contains(ExtendedSocketOptions.TCP_KEEPIDLE)) {
+                socket.setOption(ExtendedSocketOptions.TCP_KEEPIDLE, config.getHeartbeatTimeout());
+                socket.setOption(ExtendedSocketOptions.TCP_KEEPINTERVAL, 5);
+                socket.setOption(ExtendedSocketOptions.TCP_KEEPCOUNT, 3);
+            }
+        } catch (IOException e) {
+            ServerLog.warn("client.keepalive_failed", "error", e.getMessage());
         }
-        System.out.println("Client disconnected. Active clients: " + clients.size());
     }
     
-    public static synchronized boolean addUsername(String username, ClientHandler client) {
-        if (usernames.containsKey(username)) {
-            return false;
+    private static void registerMetrics() {
+        ServerMetrics.rate("connections_accepted_per_second", "", acceptedConnections);
+        ServerMetrics.gauge("connections_active", "", clients::size);
+        ServerMetrics.gauge("users_logged_in", "", usernames::size);
+        ServerMetrics.gauge("rooms_open", "", rooms::size);
+        // Outbound backlog across all clients, computed at export time
+        ServerMetrics.gauge("outbound_queue_depth_max", "", () -> {
+            long max = 0;
+            for (ProjectConnection client : clients) {
+                max = Math.max(max, client.getOutboundQueueDepth());
+            }
+            return max;
+        });
+        ServerMetrics.gauge("outbound_queue_depth_total", "", () -> {
+            long total = 0;
+            for (ProjectConnection client : clients) {
+                total += client.getOutboundQueueDepth();
+            }
+            return total;
+        });
+        ServerMetrics.gauge("outbound_queue_over_half_full", "", () -> {
+            long count = 0;
+            int half = config.getOutboundQueueCapacity() / 2;
+            for (ProjectConnection client : clients) {
+                if (client.getOutboundQueueDepth() > half) {
+                    count++;
+                }
+            }
+            return count;
+        });
+    }
+    
+    // Rooms are opened on first use, and closed again once nobody has held
+    // them for --room-idle seconds. Each is pinned to a worker by name, so
+    // one room's events are always handled in order. Returns the room held
+    // for the caller (see releaseRoom), or null if --max-rooms are already
+    // open.
+    public static ProjectRoom getRoom(String name) throws IOException {
+        roomsLock.lock();
+        try {
+            ProjectRoom room = rooms.get(name);
+            if (room != null && room.hold()) {
+                return room;
+            }
+            if (rooms.size() >= config.getMaxRooms()) {
+                ServerLog.warn("room.limit_reached", "room", name, "open", rooms.size());
+                return null;
+            }
+            room = ProjectRoom.open(name, workerFor(name), roomDataDir(name), config);
+            room.hold();
+            rooms.put(name, room);
+            ServerLog.info("room.opened", "room", name);
+            return room;
+        } finally {
+            roomsLock.unlock();
         }
-        usernames.put(username, client);
-        client.setUsername(username);
-        broadcastMessage("SYSTEM:" + username + " joined the project", client);
-        return true;
     }
     
-    public static synchronized Set<String> getActiveUsers() {
-        return new HashSet<>(usernames.keySet());
+    // For callers that must not wait on a journal: a room already open is
+    // held and returned as is, anything else is opened on its own worker.
+    // Completes with null, already logged, if the room cannot be opened.
+    public static CompletableFuture<ProjectRoom> openRoom(String name) {
+        ProjectRoom room = rooms.get(name);
+        if (room != null && room.hold()) {
+            return CompletableFuture.completedFuture(room);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return getRoom(name);
+            } catch (IOException e) {
+                ServerLog.error("room.open_failed", "room", name, "error", e.getMessage());
+                return null;
+            }
+        }, workerFor(name));
     }
     
-    public static synchronized int addTask(String title, String description, String assignedBy) {
-        int taskId = taskIdCounter.getAndIncrement();
-        ProjectTask task = new ProjectTask(taskId, title, description, assignedBy);
-        tasks.put(taskId, task);
-        
-        String taskMessage = "TASK_ADDED:" + taskId + "|" + title + "|" + description + "|" + assignedBy + "|PENDING|";
-        broadcastMessage(taskMessage, null);
-        
-        return taskId;
+    // Gives up a hold taken by getRoom or openRoom. The last one starts the
+    // idle timer; the close is queued on the room's worker, behind anything
+    // the holder left queued there.
+    public static void releaseRoom(ProjectRoom room) {
+        if (room.release()) {
+            timers.schedule(() -> workerFor(room.getName()).execute(() -> closeIfIdle(room)),
+                    config.getRoomIdle() * 1000L);
+        }
     }
     
-    public static synchronized boolean completeTask(int taskId, String completedBy) {
-        ProjectTask task = tasks.get(taskId);
-        if (task != null && task.getStatus() == TaskStatus.PENDING) {
-            task.setStatus(TaskStatus.COMPLETED);
-            task.setCompletedBy(completedBy);
-            task.setCompletedDate(new Date());
-            
-            String taskMessage = "TASK_COMPLETED:" + taskId + "|" + task.getTitle() + "|" + completedBy;
-            broadcastMessage(taskMessage, null);
-            return true;
+    // Room worker. A room that was closed is replaced by the next getRoom,
+    // which runs on the same worker and so only after the journal is shut.
+    private static void closeIfIdle(ProjectRoom room) {
+        if (room.closeIfIdle()) {
+            rooms.remove(room.getName(), room);
+            ServerLog.info("room.closed", "room", room.getName());
         }
-        return false;
     }
     
-    public static synchronized boolean deleteTask(int taskId, String deletedBy) {
-        ProjectTask task = tasks.get(taskId);
-        if (task != null) {
-            tasks.remove(taskId);
-            
-            String taskMessage = "TASK_DELETED:" + taskId + "|" + task.getTitle() + "|" + deletedBy;
-            broadcastMessage(taskMessage, null);
-            return true;
+    // Shutdown hook. Each journal is written out on its room's worker, behind
+    // any changes still queued there, so none that were applied are lost.
+    private static void flushRooms() {
+        List<CompletableFuture<Void>> flushes = new ArrayList<>();
+        for (ProjectRoom room : rooms.values()) {
+            flushes.add(CompletableFuture.runAsync(room::flushJournal, workerFor(room.getName())));
+        }
+        try {
+            CompletableFuture.allOf(flushes.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            ServerLog.warn("server.flush_incomplete", "error", e.toString());
         }
-        return false;
     }
     
-    public static synchronized List<ProjectTask> getAllTasks() {
-        return new ArrayList<>(tasks.values());
+    private static ExecutorService workerFor(String name) {
+        return roomWorkers[Math.floorMod(name.hashCode(), roomWorkers.length)];
     }
-}
-
-enum TaskStatus {
-    PENDING, COMPLETED
-}
-
-class ProjectTask {
-    private int id;
-    private String title;
-    private String description;
-    private String assignedBy;
-    private String completedBy;
-    private TaskStatus status;
-    private Date createdDate;
-    private Date completedDate;
     
-    public ProjectTask(int id, String title, String description, String assignedBy) {
-        this.id = id;
-        this.title = title;
-        this.description = description;
-        this.assignedBy = assignedBy;
-        this.status = TaskStatus.PENDING;
-        this.createdDate = new Date();
+    // The default room keeps the top-level data directory, so boards saved
+    // before rooms existed carry over
+    private static Path roomDataDir(String name) {
+        if (!config.isJournalEnabled()) {
+            return null;
+        }
+        Path dataDir = Paths.get(config.getDataDir());
+        return name.equals(DEFAULT_ROOM) ? dataDir : dataDir.resolve("rooms").resolve(name);
     }
     
-    // Getters and setters
-    public int getId() { return id; }
-    public String getTitle() { return title; }
-    public String getDescription() { return description; }
-    public String getAssignedBy() { return assignedBy; }
-    public String getCompletedBy() { return completedBy; }
-    public TaskStatus getStatus() { return status; }
-    public Date getCreatedDate() { return createdDate; }
-    public Date getCompletedDate() { return completedDate; }
+    public static void removeClient(ProjectConnection client) {
+        clients.remove(client);
+        client.stopHeartbeats();
+        String username = client.getUsername();
+        if (username != null && usernames.remove(username, client)) {
+            ProjectRoom room = client.getRoom();
+            room.leave(client);
+            releaseRoom(room);
+        }
+        ServerLog.info("client.disconnected", "user", username, "active", clients.size());
+    }
     
-    public void setCompletedBy(String completedBy) { this.completedBy = completedBy; }
-    public void setStatus(TaskStatus status) { this.status = status; }
-    public void setCompletedDate(Date completedDate) { this.completedDate = completedDate; }
+    // Usernames are unique across the server; the room is told once the name
+    // is taken
+    public static boolean addUsername(String username, ProjectConnection client) {
+        if (usernames.putIfAbsent(username, client) != null) {
+            return false;
+        }
+        client.setUsername(username);
+        client.getRoom().join(client);
+        return true;
+    }
 }
 
-class ClientHandler implements Runnable {
+class ClientHandler extends ProjectConnection implements Runnable {
     private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
-    private String username;
+    private OutputStream out;
+    private InputStream in;
+    private Thread writer;
+    private final AtomicBoolean closed = new AtomicBoolean();
     
     public ClientHandler(Socket socket) {
         this.socket = socket;
@@ -153,120 +290,90 @@ class ClientHandler implements Runnable {
     @Override
     public void run() {
         try {
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
+            // Raw byte streams so the reader can switch from lines to frames
+            // without a decoder having buffered past the HELLO line
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
             
-            // Handle username setup
-            out.println("SYSTEM:Enter your username:");
-            String usernameInput;
-            while ((usernameInput = in.readLine()) != null) {
-                if (usernameInput.startsWith("USERNAME:")) {
-                    String requestedUsername = usernameInput.substring(9);
-                    if (ProjectServer.addUsername(requestedUsername, this)) {
-                        out.println("SYSTEM:Welcome to the project, " + requestedUsername + "!");
-                        sendUserList();
-                        sendAllTasks();
+            // The writer runs on the same kind of thread as the reader
+            writer = Thread.currentThread().isVirtual()
+                    ? Thread.ofVirtual().unstarted(this::writeLoop)
+                    : new Thread(this::writeLoop);
+            writer.start();
+            onConnected();
+            
+            // Handle username setup, then messages and commands
+            ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(256);
+            ByteBuffer frameBuffer = ByteBuffer.allocate(1024);
+            while (!closed.get()) {
+                if (binaryInput) {
+                    frameBuffer = WireProtocol.readFrame(in, frameBuffer);
+                    if (frameBuffer == null) {
                         break;
-                    } else {
-                        out.println("SYSTEM:Username already taken. Please choose another:");
                     }
+                    handleFrame(frameBuffer);
+                } else {
+                    String message = WireProtocol.readLine(in, lineBuffer);
+                    if (message == null) {
+                        break;
+                    }
+                    handleLine(message);
                 }
             }
-            
-            // Handle messages and commands
-            String message;
-            while ((message = in.readLine()) != null) {
-                if (message.startsWith("ADD_TASK:")) {
-                    handleAddTask(message.substring(9));
-                } else if (message.startsWith("COMPLETE_TASK:")) {
-                    handleCompleteTask(message.substring(14));
-                } else if (message.startsWith("DELETE_TASK:")) {
-                    handleDeleteTask(message.substring(12));
-                } else if (message.startsWith("MESSAGE:")) {
-                    String chatMessage = message.substring(8);
-                    String formattedMessage = "MESSAGE:" + username + ": " + chatMessage;
-                    ProjectServer.broadcastMessage(formattedMessage, this);
-                }
-            }
-        } catch (IOException e) {
-            System.out.println("Client handler error: " + e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            ServerLog.warn("client.error", "user", getUsername(), "error", e.getMessage());
         } finally {
-            cleanup();
-        }
-    }
-    
-    private void handleAddTask(String taskData) {
-        String[] parts = taskData.split("\\|", 2);
-        if (parts.length == 2) {
-            String title = parts[0];
-            String description = parts[1];
-            int taskId = ProjectServer.addTask(title, description, username);
-            System.out.println("Task added by " + username + ": " + title);
-        }
-    }
-    
-    private void handleCompleteTask(String taskIdStr) {
-        try {
-            int taskId = Integer.parseInt(taskIdStr);
-            boolean success = ProjectServer.completeTask(taskId, username);
-            if (success) {
-                System.out.println("Task " + taskId + " completed by " + username);
-            }
-        } catch (NumberFormatException e) {
-            System.out.println("Invalid task ID: " + taskIdStr);
+            close();
         }
     }
     
-    private void handleDeleteTask(String taskIdStr) {
+    // Drains the outbound queue in batches: after the first event of a burst
+    // it waits up to the flush delay for more, and flushes once the queue
+    // runs dry, the delay is up or a whole batch is buffered
+    private void writeLoop() {
         try {
-            int taskId = Integer.parseInt(taskIdStr);
-            boolean success = ProjectServer.deleteTask(taskId, username);
-            if (success) {
-                System.out.println("Task " + taskId + " deleted by " + username);
+            while (!closed.get()) {
+                ServerEvent event = outbound.take();
+                long deadline = System.nanoTime() + flushDelayNanos;
+                int batched = 0;
+                while (event != null) {
+                    out.write(encode(event));
+                    if (++batched >= flushBatch) {
+                        break;
+                    }
+                    event = outbound.poll();
+                    if (event == null) {
+                        long wait = deadline - System.nanoTime();
+                        if (wait > 0) {
+                            event = outbound.poll(wait, TimeUnit.NANOSECONDS);
+                        }
+                    }
+                }
+                out.flush();
+                countSocketWrite();
             }
-        } catch (NumberFormatException e) {
-            System.out.println("Invalid task ID: " + taskIdStr);
-        }
-    }
-    
-    private void sendAllTasks() {
-        List<ProjectTask> tasks = ProjectServer.getAllTasks();
-        for (ProjectTask task : tasks) {
-            String taskMessage = "TASK_ADDED:" + task.getId() + "|" + task.getTitle() + "|" + 
-                                task.getDescription() + "|" + task.getAssignedBy() + "|" + 
-                                task.getStatus() + "|" + 
-                                (task.getCompletedBy() != null ? task.getCompletedBy() : "");
-            sendMessage(taskMessage);
+        } catch (InterruptedException | IOException e) {
+            // Closing
         }
+        close();
     }
     
-    public void sendMessage(String message) {
-        if (out != null) {
-            out.println(message);
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
         }
-    }
-    
-    public void sendUserList() {
-        Set<String> users = ProjectServer.getActiveUsers();
-        sendMessage("USERS:" + String.join(",", users));
-    }
-    
-    public String getUsername() {
-        return username;
-    }
-    
-    public void setUsername(String username) {
-        this.username = username;
-    }
-    
-    private void cleanup() {
+        // Closing the socket unblocks the reader and writer; the streams are
+        // left to them so a foreign thread never waits on a stream lock
         try {
-            if (in != null) in.close();
-            if (out != null) out.close();
             if (socket != null) socket.close();
         } catch (IOException e) {
-            System.err.println("Error closing client resources: " + e.getMessage());
+            ServerLog.warn("client.close_failed", "user", getUsername(), "error", e.getMessage());
+        }
+        if (writer != null) {
+            writer.interrupt();
         }
+        outbound.clear();
         ProjectServer.removeClient(this);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,56 @@
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ProjectTask {
+    // Status, completer and completion date change together, so they live in
+    // one immutable value that is swapped with compare-and-set
+    private record State(TaskStatus status, String completedBy, Date completedDate) {
+        static final State PENDING = new State(TaskStatus.PENDING, null, null);
+    }
+    
+    private final int id;
+    private final String title;
+    private final String description;
+    private final String assignedBy;
+    private final Date createdDate;
+    private final AtomicReference<State> state = new AtomicReference<>(State.PENDING);
+    
+    public ProjectTask(int id, String title, String description, String assignedBy) {
+        this(id, title, description, assignedBy, new Date());
+    }
+    
+    public ProjectTask(int id, String title, String description, String assignedBy, Date createdDate) {
+        this.id = id;
+        this.title = title;
+        this.description = description;
+        this.assignedBy = assignedBy;
+        this.createdDate = createdDate;
+    }
+    
+    // Getters
+    public int getId() { return id; }
+    public String getTitle() { return title; }
+    public String getDescription() { return description; }
+    public String getAssignedBy() { return assignedBy; }
+    public String getCompletedBy() { return state.get().completedBy(); }
+    public TaskStatus getStatus() { return state.get().status(); }
+    public Date getCreatedDate() { return createdDate; }
+    public Date getCompletedDate() { return state.get().completedDate(); }
+    
+    // PENDING -> COMPLETED; false if someone else completed or deleted it first
+    public boolean complete(String completedBy, Date completedDate) {
+        return state.compareAndSet(State.PENDING, new State(TaskStatus.COMPLETED, completedBy, completedDate));
+    }
+    
+    // PENDING/COMPLETED -> DELETED; false if it was already deleted
+    public boolean markDeleted() {
+        State current;
+        do {
+            current = state.get();
+            if (current.status() == TaskStatus.DELETED) {
+                return false;
+            }
+        } while (!state.compareAndSet(current, new State(TaskStatus.DELETED, current.completedBy(), current.completedDate())));
+        return true;
+    }
+}
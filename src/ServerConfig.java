@@ -0,0 +1,132 @@
+public class ServerConfig {
+
+    public enum Mode {
+        BLOCKING, VIRTUAL, NIO
+    }
+
+    // What to do with a client whose outbound queue is full
+    public enum SlowConsumerPolicy {
+        DROP,       // discard the new message
+        COALESCE,   // discard the backlog and queue a full resync instead
+        DISCONNECT  // close the connection
+    }
+
+    private int port = 12345;
+    private Mode mode = Mode.BLOCKING;
+    private int eventLoops = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private int outboundQueueCapacity = 1024;
+    private int flushDelayMillis = 2;
+    private int flushBatch = 64;
+    private int compressThreshold = 1024;
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.COALESCE;
+    private int clientRate = 20;
+    private int clientBurst = 40;
+    private int roomRate = 1000;
+    private int roomBurst = 2000;
+    private int heartbeatInterval = 15;
+    private int heartbeatTimeout = 45;
+    private String dataDir = "project-data";
+    private boolean journalEnabled = true;
+    private int snapshotEvery = 10000;
+    private int resyncWindow = 10000;
+    private int chatHistory = 500;
+    private int dedupWindow = 60;
+    private int roomWorkers = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private int maxRooms = 256;
+    private int roomIdle = 300;
+    private ServerLog.Level logLevel = ServerLog.Level.INFO;
+    private int logSample = 100;
+    private String logFile = null;
+    private int adminPort = 0;
+    private String metricsFile = null;
+    private int metricsInterval = 10;
+
+    // Parses "--key=value" style arguments, e.g. "--mode=nio --event-loops=4"
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            String key = parts[0];
+            String value = parts.length > 1 ? parts[1] : "";
+
+            switch (key) {
+                case "--port" -> config.port = Integer.parseInt(value);
+                case "--mode" -> config.mode = Mode.valueOf(value.toUpperCase());
+                case "--event-loops" -> config.eventLoops = Math.max(1, Integer.parseInt(value));
+                case "--outbound-queue" -> config.outboundQueueCapacity = Math.max(1, Integer.parseInt(value));
+                case "--flush-delay-ms" -> config.flushDelayMillis = Math.max(0, Integer.parseInt(value));
+                case "--flush-batch" -> config.flushBatch = Math.max(1, Integer.parseInt(value));
+                case "--compress-threshold" -> config.compressThreshold = Math.max(0, Integer.parseInt(value));
+                case "--slow-consumer" -> config.slowConsumerPolicy = SlowConsumerPolicy.valueOf(value.toUpperCase());
+                case "--client-rate" -> config.clientRate = Math.max(0, Integer.parseInt(value));
+                case "--client-burst" -> config.clientBurst = Math.max(1, Integer.parseInt(value));
+                case "--room-rate" -> config.roomRate = Math.max(0, Integer.parseInt(value));
+                case "--room-burst" -> config.roomBurst = Math.max(1, Integer.parseInt(value));
+                case "--heartbeat-interval" -> config.heartbeatInterval = Math.max(0, Integer.parseInt(value));
+                case "--heartbeat-timeout" -> config.heartbeatTimeout = Math.max(1, Integer.parseInt(value));
+                case "--data-dir" -> config.dataDir = value;
+                case "--no-journal" -> config.journalEnabled = false;
+                case "--snapshot-every" -> config.snapshotEvery = Math.max(1, Integer.parseInt(value));
+                case "--resync-window" -> config.resyncWindow = Math.max(1, Integer.parseInt(value));
+                case "--chat-history" -> config.chatHistory = Math.max(0, Integer.parseInt(value));
+                case "--dedup-window" -> config.dedupWindow = Math.max(1, Integer.parseInt(value));
+                case "--room-workers" -> config.roomWorkers = Math.max(1, Integer.parseInt(value));
+                case "--max-rooms" -> config.maxRooms = Math.max(1, Integer.parseInt(value));
+                case "--room-idle" -> config.roomIdle = Math.max(1, Integer.parseInt(value));
+                case "--log-level" -> config.logLevel = ServerLog.Level.valueOf(value.toUpperCase());
+                case "--log-sample" -> config.logSample = Math.max(1, Integer.parseInt(value));
+                case "--log-file" -> config.logFile = value;
+                case "--admin-port" -> config.adminPort = Integer.parseInt(value);
+                case "--metrics-file" -> config.metricsFile = value;
+                case "--metrics-interval" -> config.metricsInterval = Math.max(1, Integer.parseInt(value));
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        return config;
+    }
+
+    public static String usage() {
+        return "Usage: ProjectServer [--port=12345] [--mode=blocking|virtual|nio] [--event-loops=N]" +
+               " [--outbound-queue=1024] [--flush-delay-ms=2] [--flush-batch=64]" +
+               " [--compress-threshold=1024]" +
+               " [--slow-consumer=drop|coalesce|disconnect]" +
+               " [--client-rate=20] [--client-burst=40] [--room-rate=1000] [--room-burst=2000]" +
+               " [--heartbeat-interval=15] [--heartbeat-timeout=45]" +
+               " [--data-dir=project-data] [--no-journal] [--snapshot-every=10000]" +
+               " [--resync-window=10000] [--chat-history=500] [--dedup-window=60]" +
+               " [--room-workers=N] [--max-rooms=256] [--room-idle=300]" +
+               " [--log-level=debug|info|warn|error] [--log-sample=100] [--log-file=PATH]" +
+               " [--admin-port=N] [--metrics-file=PATH] [--metrics-interval=10]";
+    }
+
+    // Getters
+    public int getPort() { return port; }
+    public Mode getMode() { return mode; }
+    public int getEventLoops() { return eventLoops; }
+    public int getOutboundQueueCapacity() { return outboundQueueCapacity; }
+    public int getFlushDelayMillis() { return flushDelayMillis; }
+    public int getFlushBatch() { return flushBatch; }
+    public int getCompressThreshold() { return compressThreshold; }
+    public SlowConsumerPolicy getSlowConsumerPolicy() { return slowConsumerPolicy; }
+    public int getClientRate() { return clientRate; }
+    public int getClientBurst() { return clientBurst; }
+    public int getRoomRate() { return roomRate; }
+    public int getRoomBurst() { return roomBurst; }
+    public int getHeartbeatInterval() { return heartbeatInterval; }
+    public int getHeartbeatTimeout() { return heartbeatTimeout; }
+    public String getDataDir() { return dataDir; }
+    public boolean isJournalEnabled() { return journalEnabled; }
+    public int getSnapshotEvery() { return snapshotEvery; }
+    public int getResyncWindow() { return resyncWindow; }
+    public int getChatHistory() { return chatHistory; }
+    public int getDedupWindow() { return dedupWindow; }
+    public int getRoomWorkers() { return roomWorkers; }
+    public int getMaxRooms() { return maxRooms; }
+    public int getRoomIdle() { return roomIdle; }
+    public ServerLog.Level getLogLevel() { return logLevel; }
+    public int getLogSample() { return logSample; }
+    public String getLogFile() { return logFile; }
+    public int getAdminPort() { return adminPort; }
+    public String getMetricsFile() { return metricsFile; }
+    public int getMetricsInterval() { return metricsInterval; }
+}
@@ -0,0 +1,287 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+
+// One message from the server to its clients. A broadcast builds the event
+// once; each dialect (text line or binary frame) is encoded on first use and
+// then shared by every connection that needs it.
+//
+// Board events (TASK_*) get a sequence number when they are broadcast; it is
+// appended as a trailing field, which clients that predate it simply ignore.
+public final class ServerEvent {
+    public enum Type {
+        SYSTEM, MESSAGE, USERS, TASK_ADDED, TASK_COMPLETED, TASK_DELETED, SYNC_RESET,
+        SYNC,     // epoch and sequence the client's board is now current to
+        PRESENCE, USER_JOINED, USER_LEFT, // versioned member list and its deltas
+        PING,     // heartbeat; the client echoes the token in a PONG
+        HISTORY,  // a page of earlier chat messages, oldest first
+        ACK,      // outcome of one command sent with a request ID
+        HELLO_OK, // always sent as text; the switch point for binary output
+        BATCH     // several events that must stay together in a queue
+    }
+
+    // Deflaters hold sizeable native buffers, so rather than one per
+    // connection the threads that compress share a pool; it only grows to
+    // the number compressing at the same moment
+    private static final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+
+    private final Type type;
+    private final int taskId;
+    private final String[] fields;
+    private final List<ServerEvent> batch;
+    private final long seq; // 0 until sequenced; the epoch for SYNC, the version for presence, the PING token,
+                            // 1 for HISTORY if older messages remain, the request ID for ACK
+
+    // Lazily encoded forms; racing threads at worst encode twice
+    private volatile byte[] textBytes;
+    private volatile byte[] frameBytes;
+    private volatile byte[] compressedFrameBytes;
+
+    private ServerEvent(Type type, int taskId, String[] fields, List<ServerEvent> batch) {
+        this(type, taskId, fields, batch, 0);
+    }
+
+    private ServerEvent(Type type, int taskId, String[] fields, List<ServerEvent> batch, long seq) {
+        this.type = type;
+        this.taskId = taskId;
+        this.fields = fields;
+        this.batch = batch;
+        this.seq = seq;
+    }
+
+    // Factories
+
+    public static ServerEvent system(String text) {
+        return new ServerEvent(Type.SYSTEM, 0, new String[] { text }, null);
+    }
+
+    public static ServerEvent message(String sender, String text) {
+        return new ServerEvent(Type.MESSAGE, 0, new String[] { sender, text }, null);
+    }
+
+    public static ServerEvent users(Collection<String> usernames) {
+        return new ServerEvent(Type.USERS, 0, usernames.toArray(new String[0]), null);
+    }
+
+    public static ServerEvent taskAdded(ProjectTask task) {
+        String completedBy = task.getCompletedBy() != null ? task.getCompletedBy() : "";
+        return new ServerEvent(Type.TASK_ADDED, task.getId(), new String[] {
+                task.getTitle(), task.getDescription(), task.getAssignedBy(),
+                task.getStatus().name(), completedBy }, null);
+    }
+
+    public static ServerEvent taskCompleted(ProjectTask task, String completedBy) {
+        return new ServerEvent(Type.TASK_COMPLETED, task.getId(), new String[] { task.getTitle(), completedBy }, null);
+    }
+
+    public static ServerEvent taskDeleted(ProjectTask task, String deletedBy) {
+        return new ServerEvent(Type.TASK_DELETED, task.getId(), new String[] { task.getTitle(), deletedBy }, null);
+    }
+
+    public static ServerEvent syncReset() {
+        return new ServerEvent(Type.SYNC_RESET, 0, new String[0], null);
+    }
+
+    public static ServerEvent sync(long epoch, long seq) {
+        return new ServerEvent(Type.SYNC, 0, new String[] { Long.toString(seq) }, null, epoch);
+    }
+
+    public static ServerEvent presence(Collection<String> usernames, long version) {
+        return new ServerEvent(Type.PRESENCE, 0, usernames.toArray(new String[0]), null, version);
+    }
+
+    public static ServerEvent userJoined(String username, long version) {
+        return new ServerEvent(Type.USER_JOINED, 0, new String[] { username }, null, version);
+    }
+
+    public static ServerEvent userLeft(String username, long version) {
+        return new ServerEvent(Type.USER_LEFT, 0, new String[] { username }, null, version);
+    }
+
+    public static ServerEvent helloOk(String capabilities) {
+        return new ServerEvent(Type.HELLO_OK, 0, new String[] { capabilities }, null);
+    }
+
+    // The token is the server's send time, so the PONG gives a round trip
+    public static ServerEvent ping(long token) {
+        return new ServerEvent(Type.PING, 0, new String[0], null, token);
+    }
+
+    // Numbered MESSAGE events from a room's ChatHistory
+    public static ServerEvent history(List<ServerEvent> messages, boolean more) {
+        return new ServerEvent(Type.HISTORY, 0, new String[0], List.copyOf(messages), more ? 1 : 0);
+    }
+
+    // The result (a task ID, or 0) travels in the task ID slot
+    public static ServerEvent ack(long requestId, WireProtocol.AckStatus status, int result) {
+        return new ServerEvent(Type.ACK, result, new String[] { status.name() }, null, requestId);
+    }
+
+    public static ServerEvent batch(List<ServerEvent> events) {
+        return new ServerEvent(Type.BATCH, 0, new String[0], List.copyOf(events));
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    // Only changes to the board are numbered and kept for replay; chat
+    // messages are numbered separately for paging through history
+    public boolean isBoardEvent() {
+        return type == Type.TASK_ADDED || type == Type.TASK_COMPLETED || type == Type.TASK_DELETED;
+    }
+
+    public ServerEvent withSeq(long seq) {
+        return new ServerEvent(type, taskId, fields, batch, seq);
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    // The events inside a BATCH, null for any other type
+    public List<ServerEvent> getBatch() {
+        return batch;
+    }
+
+    // Encodings
+
+    // Text protocol line(s), newline terminated
+    public byte[] textBytes() {
+        byte[] bytes = textBytes;
+        if (bytes == null) {
+            textBytes = bytes = (toText() + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    public String toText() {
+        return switch (type) {
+            case SYSTEM -> "SYSTEM:" + fields[0];
+            case MESSAGE -> "MESSAGE:" + fields[0] + ": " + fields[1];
+            case USERS -> "USERS:" + String.join(",", fields);
+            case TASK_ADDED -> "TASK_ADDED:" + taskId + "|" + String.join("|", fields) + seqSuffix();
+            case TASK_COMPLETED -> "TASK_COMPLETED:" + taskId + "|" + fields[0] + "|" + fields[1] + seqSuffix();
+            case TASK_DELETED -> "TASK_DELETED:" + taskId + "|" + fields[0] + "|" + fields[1] + seqSuffix();
+            case SYNC_RESET -> "SYNC_RESET:";
+            case SYNC -> "SYNC:" + seq + ":" + fields[0];
+            case PRESENCE -> "PRESENCE:" + seq + "|" + String.join(",", fields);
+            case USER_JOINED -> "USER_JOINED:" + fields[0] + "|" + seq;
+            case USER_LEFT -> "USER_LEFT:" + fields[0] + "|" + seq;
+            case PING -> "PING:" + seq;
+            case ACK -> "ACK:" + seq + "|" + fields[0] + "|" + taskId;
+            case HISTORY -> {
+                StringBuilder text = new StringBuilder();
+                for (ServerEvent message : batch) {
+                    text.append("HISTORY:").append(message.seq).append('|').append(message.fields[0])
+                            .append('|').append(message.fields[1]).append('\n');
+                }
+                yield text.append("HISTORY_END:").append(seq).toString();
+            }
+            case HELLO_OK -> WireProtocol.HELLO_OK + fields[0];
+            case BATCH -> {
+                StringBuilder text = new StringBuilder();
+                for (ServerEvent event : batch) {
+                    if (text.length() > 0) {
+                        text.append('\n');
+                    }
+                    text.append(event.toText());
+                }
+                yield text.toString();
+            }
+        };
+    }
+
+    // Always present on board events (0 when not sequenced) so the last field
+    // is unambiguous for clients that read it
+    private String seqSuffix() {
+        return "|" + seq;
+    }
+
+    // Binary frame(s)
+    public byte[] frameBytes() {
+        byte[] bytes = frameBytes;
+        if (bytes == null) {
+            frameBytes = bytes = encodeFrame();
+        }
+        return bytes;
+    }
+
+    // The binary form wrapped in one EVT_COMPRESSED frame, or the plain
+    // frames if they do not compress. Only for clients that offered DEFLATE.
+    public byte[] compressedFrameBytes() {
+        byte[] bytes = compressedFrameBytes;
+        if (bytes == null) {
+            Deflater deflater = deflaters.poll();
+            if (deflater == null) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+            }
+            try {
+                bytes = WireProtocol.deflateFrames(frameBytes(), deflater);
+            } finally {
+                deflaters.offer(deflater);
+            }
+            compressedFrameBytes = bytes;
+        }
+        return bytes;
+    }
+
+    private byte[] encodeFrame() {
+        return switch (type) {
+            case SYSTEM -> new WireProtocol.FrameBuilder(WireProtocol.EVT_SYSTEM).string(fields[0]).finish();
+            case MESSAGE -> new WireProtocol.FrameBuilder(WireProtocol.EVT_MESSAGE)
+                    .string(fields[0]).string(fields[1]).varlong(seq).finish();
+            case USERS -> {
+                WireProtocol.FrameBuilder frame = new WireProtocol.FrameBuilder(WireProtocol.EVT_USERS).varint(fields.length);
+                for (String username : fields) {
+                    frame.string(username);
+                }
+                yield frame.finish();
+            }
+            case TASK_ADDED -> new WireProtocol.FrameBuilder(WireProtocol.EVT_TASK_ADDED).varint(taskId)
+                    .string(fields[0]).string(fields[1]).string(fields[2])
+                    .varint(TaskStatus.valueOf(fields[3]).ordinal()).string(fields[4]).varlong(seq).finish();
+            case TASK_COMPLETED -> new WireProtocol.FrameBuilder(WireProtocol.EVT_TASK_COMPLETED).varint(taskId)
+                    .string(fields[0]).string(fields[1]).varlong(seq).finish();
+            case TASK_DELETED -> new WireProtocol.FrameBuilder(WireProtocol.EVT_TASK_DELETED).varint(taskId)
+                    .string(fields[0]).string(fields[1]).varlong(seq).finish();
+            case SYNC_RESET -> new WireProtocol.FrameBuilder(WireProtocol.EVT_SYNC_RESET).finish();
+            case SYNC -> new WireProtocol.FrameBuilder(WireProtocol.EVT_SYNC)
+                    .varlong(seq).varlong(Long.parseLong(fields[0])).finish();
+            case PRESENCE -> {
+                WireProtocol.FrameBuilder frame = new WireProtocol.FrameBuilder(WireProtocol.EVT_PRESENCE)
+                        .varlong(seq).varint(fields.length);
+                for (String username : fields) {
+                    frame.string(username);
+                }
+                yield frame.finish();
+            }
+            case USER_JOINED -> new WireProtocol.FrameBuilder(WireProtocol.EVT_USER_JOINED)
+                    .string(fields[0]).varlong(seq).finish();
+            case USER_LEFT -> new WireProtocol.FrameBuilder(WireProtocol.EVT_USER_LEFT)
+                    .string(fields[0]).varlong(seq).finish();
+            case PING -> new WireProtocol.FrameBuilder(WireProtocol.EVT_PING).varlong(seq).finish();
+            case ACK -> new WireProtocol.FrameBuilder(WireProtocol.EVT_ACK).varlong(seq)
+                    .varint(WireProtocol.AckStatus.valueOf(fields[0]).ordinal()).varint(taskId).finish();
+            case HISTORY -> {
+                WireProtocol.FrameBuilder frame = new WireProtocol.FrameBuilder(WireProtocol.EVT_HISTORY)
+                        .varint((int) seq).varint(batch.size());
+                for (ServerEvent message : batch) {
+                    frame.varlong(message.seq).string(message.fields[0]).string(message.fields[1]);
+                }
+                yield frame.finish();
+            }
+            case HELLO_OK -> textBytes();
+            case BATCH -> {
+                ByteArrayOutputStream frames = new ByteArrayOutputStream();
+                for (ServerEvent event : batch) {
+                    frames.writeBytes(event.frameBytes());
+                }
+                yield frames.toByteArray();
+            }
+        };
+    }
+}
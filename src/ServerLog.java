@@ -0,0 +1,223 @@
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Asynchronous structured logging for the server.
+//
+// Callers only claim a slot in a fixed ring and store references to their
+// arguments; formatting and I/O happen on a background writer thread. A full
+// ring drops the record (and counts it) rather than ever blocking the caller.
+// Records come out one per line in logfmt style:
+//
+//   2026-10-18T09:15:02.113Z INFO client.connected remote=/127.0.0.1
+//
+// Per-message events should be guarded with sampled(), which lets roughly
+// one in --log-sample calls through, so busy rooms cost almost nothing.
+public final class ServerLog {
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    private static final int CAPACITY = 8192; // power of two
+    private static final int MASK = CAPACITY - 1;
+
+    // One ring entry; published holds the sequence it was written for
+    private static final class Slot {
+        volatile long published = -1;
+        long time;
+        Level level;
+        String event;
+        Object[] fields;
+    }
+
+    private static final Slot[] slots = new Slot[CAPACITY];
+    private static final AtomicLong claimed = new AtomicLong();
+    private static volatile long consumed;
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static volatile Level threshold = Level.INFO;
+    private static volatile int sampleEvery = 100;
+    private static Writer output;
+    private static Thread writer;
+    private static final ReentrantLock drainLock = new ReentrantLock();
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    private ServerLog() {
+    }
+
+    // Starts the writer; logFile null means standard output
+    public static void start(Level level, int sample, String logFile) throws IOException {
+        threshold = level;
+        sampleEvery = Math.max(1, sample);
+        output = new BufferedWriter(new OutputStreamWriter(logFile != null
+                ? new FileOutputStream(logFile, true)
+                : new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 64 * 1024);
+
+        writer = new Thread(ServerLog::writeLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(ServerLog::drain, "log-flush"));
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
+    // True for about one call in sampleEvery at an enabled level. Random
+    // rather than counted, so hot threads share no state.
+    public static boolean sampled(Level level) {
+        return isEnabled(level) && (sampleEvery == 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0);
+    }
+
+    public static int getSampleEvery() {
+        return sampleEvery;
+    }
+
+    // Fields are alternating keys and values
+    public static void debug(String event, Object... fields) {
+        log(Level.DEBUG, event, fields);
+    }
+
+    public static void info(String event, Object... fields) {
+        log(Level.INFO, event, fields);
+    }
+
+    public static void warn(String event, Object... fields) {
+        log(Level.WARN, event, fields);
+    }
+
+    public static void error(String event, Object... fields) {
+        log(Level.ERROR, event, fields);
+    }
+
+    public static void log(Level level, String event, Object... fields) {
+        if (!isEnabled(level)) {
+            return;
+        }
+
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq - consumed >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+
+        Slot slot = slots[(int) (seq & MASK)];
+        slot.time = System.currentTimeMillis();
+        slot.level = level;
+        slot.event = event;
+        slot.fields = fields;
+        slot.published = seq;
+    }
+
+    // Writer thread
+
+    private static void writeLoop() {
+        long reportedDrops = 0;
+        while (true) {
+            if (!drain()) {
+                long drops = dropped.get();
+                if (drops != reportedDrops) {
+                    log(Level.WARN, "log.dropped", "count", drops - reportedDrops);
+                    reportedDrops = drops;
+                    continue;
+                }
+                LockSupport.parkNanos(5_000_000);
+            }
+        }
+    }
+
+    // Writes every published record; returns false if there was nothing.
+    // Called by the writer and, at exit, by the shutdown hook.
+    private static boolean drain() {
+        drainLock.lock();
+        try {
+            return drainLocked();
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    private static boolean drainLocked() {
+        if (output == null) {
+            return false;
+        }
+        long start = consumed;
+        long next = start;
+        StringBuilder line = new StringBuilder(128);
+        try {
+            while (true) {
+                Slot slot = slots[(int) (next & MASK)];
+                if (slot.published != next) {
+                    break;
+                }
+                line.setLength(0);
+                format(slot, line);
+                output.write(line.toString());
+
+                slot.fields = null;
+                slot.event = null;
+                consumed = ++next;
+            }
+            if (next != start) {
+                output.flush();
+            }
+        } catch (IOException e) {
+            // Nowhere left to report it
+        }
+        return next != start;
+    }
+
+    private static void format(Slot slot, StringBuilder line) {
+        line.append(Instant.ofEpochMilli(slot.time)).append(' ')
+            .append(slot.level).append(' ')
+            .append(slot.event);
+        Object[] fields = slot.fields;
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            line.append(' ').append(fields[i]).append('=');
+            appendValue(line, String.valueOf(fields[i + 1]));
+        }
+        line.append('\n');
+    }
+
+    // Quotes values that would otherwise be ambiguous
+    private static void appendValue(StringBuilder line, String value) {
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c <= ' ' || c == '"' || c == '=';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> line.append("\\\"");
+                case '\\' -> line.append("\\\\");
+                case '\n' -> line.append("\\n");
+                case '\r' -> line.append("\\r");
+                default -> line.append(c);
+            }
+        }
+        line.append('"');
+    }
+}
@@ -0,0 +1,336 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// Process-wide metrics registry.
+//
+// Counters are LongAdders and histograms are fixed arrays of atomic buckets,
+// so recording never allocates or takes a lock. Export renders every metric
+// in Prometheus text format into buffers that are reused between exports.
+// The snapshot is served on a loopback admin port and/or appended to a file
+// at a fixed interval.
+public final class ServerMetrics {
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    // HDR-style log-linear histogram: 16 linear sub-buckets per power of two,
+    // so any recorded value is reported within about 6% across the full long
+    // range. Values are recorded in nanoseconds and exported in microseconds.
+    public static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts.incrementAndGet(bucketOf(value));
+            sum.add(value);
+            if (value > max.get()) {
+                max.accumulateAndGet(value, Math::max);
+            }
+        }
+
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int group = exponent - SUB_BITS + 1;
+            return group * SUB_COUNT + (int) ((value >>> (exponent - SUB_BITS)) - SUB_COUNT);
+        }
+
+        // Largest value that lands in the bucket
+        static long upperBoundOf(int bucket) {
+            if (bucket < SUB_COUNT) {
+                return bucket;
+            }
+            int group = bucket / SUB_COUNT;
+            long mantissa = SUB_COUNT + bucket % SUB_COUNT;
+            return ((mantissa + 1) << (group - 1)) - 1;
+        }
+
+        // Copies bucket counts into scratch and returns their total
+        long snapshot(long[] scratch) {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                scratch[i] = counts.get(i);
+                count += scratch[i];
+            }
+            return count;
+        }
+
+        static long percentile(long[] snapshot, long count, double quantile) {
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank && seen > 0) {
+                    return upperBoundOf(i);
+                }
+            }
+            return 0;
+        }
+    }
+
+    // Per-second rate of a counter, updated by the ticker thread
+    private static final class Rate implements LongSupplier {
+        private final Counter source;
+        private long last;
+        private volatile long perSecond;
+
+        Rate(Counter source) {
+            this.source = source;
+        }
+
+        void tick() {
+            long now = source.get();
+            perSecond = now - last;
+            last = now;
+        }
+
+        @Override
+        public long getAsLong() {
+            return perSecond;
+        }
+    }
+
+    private enum Kind { COUNTER, GAUGE, HISTOGRAM }
+
+    private record Metric(Kind kind, String name, String labels, Object source) {}
+
+    private static final List<Metric> metrics = new CopyOnWriteArrayList<>();
+    private static final List<Rate> rates = new CopyOnWriteArrayList<>();
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    private static final String[] QUANTILE_LABELS = { "0.5", "0.9", "0.99", "0.999" };
+
+    // Export state, reused between exports and guarded by exportLock
+    private static final ReentrantLock exportLock = new ReentrantLock();
+    private static final StringBuilder text = new StringBuilder(16 * 1024);
+    private static final long[] bucketScratch = new long[Histogram.BUCKETS];
+    private static byte[] bytes = new byte[16 * 1024];
+
+    private ServerMetrics() {
+    }
+
+    // Registration; labels are pre-rendered, e.g. type="ADD_TASK"
+
+    public static Counter counter(String name, String labels) {
+        Counter counter = new Counter();
+        metrics.add(new Metric(Kind.COUNTER, name, labels, counter));
+        return counter;
+    }
+
+    public static Histogram histogram(String name, String labels) {
+        Histogram histogram = new Histogram();
+        metrics.add(new Metric(Kind.HISTOGRAM, name, labels, histogram));
+        return histogram;
+    }
+
+    public static void gauge(String name, String labels, LongSupplier value) {
+        metrics.add(new Metric(Kind.GAUGE, name, labels, value));
+    }
+
+    // Exported as the counter's increase over the last whole second
+    public static void rate(String name, String labels, Counter counter) {
+        Rate rate = new Rate(counter);
+        rates.add(rate);
+        gauge(name, labels, rate);
+    }
+
+    // Drops every metric registered with exactly these labels, e.g. those of
+    // a project that has been closed
+    public static void remove(String labels) {
+        metrics.removeIf(metric -> metric.labels().equals(labels));
+    }
+
+    public static String label(String key, String value) {
+        return key + "=\"" + value + "\"";
+    }
+
+    // Publishing
+
+    // Starts the admin port (0 = off) and the periodic file (null = off)
+    public static void start(int adminPort, String metricsFile, int intervalSeconds) throws IOException {
+        Thread ticker = new Thread(ServerMetrics::tickRates, "metrics-ticker");
+        ticker.setDaemon(true);
+        ticker.start();
+
+        if (adminPort > 0) {
+            ServerSocket admin = new ServerSocket(adminPort, 16, InetAddress.getLoopbackAddress());
+            Thread server = new Thread(() -> serveAdmin(admin), "metrics-admin");
+            server.setDaemon(true);
+            server.start();
+            ServerLog.info("metrics.admin_started", "port", adminPort);
+        }
+        if (metricsFile != null) {
+            FileChannel file = FileChannel.open(Paths.get(metricsFile), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            Thread writer = new Thread(() -> writeFile(file, intervalSeconds), "metrics-file");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    private static void tickRates() {
+        while (true) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (int i = 0; i < rates.size(); i++) {
+                rates.get(i).tick();
+            }
+        }
+    }
+
+    // Minimal HTTP/1.0: any request gets the current snapshot
+    private static void serveAdmin(ServerSocket admin) {
+        byte[] request = new byte[1024];
+        while (true) {
+            try (Socket socket = admin.accept()) {
+                socket.setSoTimeout(2000);
+                InputStream in = socket.getInputStream();
+                in.read(request); // the request itself does not matter
+                OutputStream out = socket.getOutputStream();
+                exportLock.lock();
+                try {
+                    text.setLength(0);
+                    text.append("HTTP/1.0 200 OK\r\nContent-Type: text/plain; version=0.0.4\r\n\r\n");
+                    render();
+                    out.write(bytes, 0, encode());
+                } finally {
+                    exportLock.unlock();
+                }
+                out.flush();
+            } catch (IOException e) {
+                ServerLog.warn("metrics.admin_error", "error", e.getMessage());
+            }
+        }
+    }
+
+    private static void writeFile(FileChannel file, int intervalSeconds) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (true) {
+            try {
+                Thread.sleep(intervalSeconds * 1000L);
+                exportLock.lock();
+                try {
+                    text.setLength(0);
+                    text.append("# time_millis ").append(System.currentTimeMillis()).append('\n');
+                    render();
+                    int length = encode();
+                    if (buffer.array() != bytes) {
+                        buffer = ByteBuffer.wrap(bytes);
+                    }
+                    buffer.clear().limit(length);
+                    while (buffer.hasRemaining()) {
+                        file.write(buffer);
+                    }
+                } finally {
+                    exportLock.unlock();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                ServerLog.warn("metrics.file_error", "error", e.getMessage());
+            }
+        }
+    }
+
+    // Appends every metric to text. Caller holds exportLock.
+    private static void render() {
+        for (int m = 0; m < metrics.size(); m++) {
+            Metric metric = metrics.get(m);
+            switch (metric.kind()) {
+                case COUNTER -> line(metric.name(), metric.labels(), null, ((Counter) metric.source()).get());
+                case GAUGE -> line(metric.name(), metric.labels(), null, ((LongSupplier) metric.source()).getAsLong());
+                case HISTOGRAM -> {
+                    Histogram histogram = (Histogram) metric.source();
+                    long count = histogram.snapshot(bucketScratch);
+                    long max = histogram.max.get();
+                    for (int q = 0; q < QUANTILES.length; q++) {
+                        // A bucket's upper bound can overshoot the largest value seen
+                        long nanos = Math.min(Histogram.percentile(bucketScratch, count, QUANTILES[q]), max);
+                        line(metric.name(), metric.labels(), QUANTILE_LABELS[q], nanos / 1000);
+                    }
+                    line(metric.name() + "_max", metric.labels(), null, max / 1000);
+                    line(metric.name() + "_sum", metric.labels(), null, histogram.sum.sum() / 1000);
+                    line(metric.name() + "_count", metric.labels(), null, count);
+                }
+            }
+        }
+    }
+
+    private static void line(String name, String labels, String quantile, long value) {
+        text.append(name);
+        boolean hasLabels = labels != null && !labels.isEmpty();
+        if (hasLabels || quantile != null) {
+            text.append('{');
+            if (hasLabels) {
+                text.append(labels);
+            }
+            if (quantile != null) {
+                text.append(hasLabels ? "," : "").append("quantile=\"").append(quantile).append('"');
+            }
+            text.append('}');
+        }
+        text.append(' ').append(value).append('\n');
+    }
+
+    // Metric names, labels and numbers are ASCII, so chars map to bytes.
+    // Caller holds exportLock.
+    private static int encode() {
+        int length = text.length();
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            bytes[i] = c < 128 ? (byte) c : (byte) '?';
+        }
+        return length;
+    }
+}
@@ -0,0 +1,426 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+// Durable history of the task board.
+//
+// Every mutation is appended to a write-ahead log segment (wal-N.log). The
+// journal belongs to its room's worker, which also applies the mutations:
+// records appended while the worker is busy are written by one flush task
+// queued behind them and fsynced once (group commit); callbacks run after
+// the fsync, in log order. Every snapshotEvery records the whole board is
+// written to snapshot.dat and a fresh segment is started, so startup replays
+// one snapshot plus at most two short segments rather than the full history.
+//
+// Since records are appended in the order the mutations were applied, an ADD
+// always precedes any other record for its task, and a snapshot taken after
+// a flush covers everything logged so far. Replay is idempotent all the same
+// and ignores records that no longer apply, and the segment that was live
+// during a snapshot is kept and replayed too. Nothing is written to disk
+// until the first record, so a room that never changes leaves no trace.
+public class TaskJournal {
+    private static final byte ADD = 1;
+    private static final byte COMPLETE = 2;
+    private static final byte DELETE = 3;
+
+    private static final String SNAPSHOT_FILE = "snapshot.dat";
+
+    private record Entry(byte[] record, Runnable onDurable) {}
+
+    private final Path directory;
+    private final TaskStore store;
+    private final int snapshotEvery;
+    private final Executor worker;
+
+    // Room worker only, like everything below
+    private List<Entry> pending = new ArrayList<>();
+    private boolean flushQueued;
+    private FileChannel segment; // null until the first write
+    private long segmentNumber;
+    private long recordsSinceSnapshot;
+    private boolean failed;
+
+    private TaskJournal(Path directory, TaskStore store, int snapshotEvery, Executor worker) {
+        this.directory = directory;
+        this.store = store;
+        this.snapshotEvery = snapshotEvery;
+        this.worker = worker;
+    }
+
+    // Restores the store from disk; new mutations are then logged by worker
+    public static TaskJournal open(Path directory, TaskStore store, int snapshotEvery, Executor worker)
+            throws IOException {
+        TaskJournal journal = new TaskJournal(directory, store, snapshotEvery, worker);
+        if (Files.isDirectory(directory)) {
+            journal.recover();
+        }
+        return journal;
+    }
+
+    // Room worker only. Queues a record; onDurable runs on the worker once it
+    // is fsynced.
+    public void append(byte[] record, Runnable onDurable) {
+        pending.add(new Entry(record, onDurable));
+        if (!flushQueued) {
+            flushQueued = true;
+            worker.execute(this::flush);
+        }
+    }
+
+    // Room worker only. Writes out whatever is still queued and closes the
+    // live segment.
+    public void close() {
+        flush();
+        closeSegment();
+    }
+
+    // Record encoders
+
+    public static byte[] added(ProjectTask task) {
+        return encode(out -> {
+            out.writeByte(ADD);
+            out.writeInt(task.getId());
+            writeString(out, task.getTitle());
+            writeString(out, task.getDescription());
+            writeString(out, task.getAssignedBy());
+            out.writeLong(task.getCreatedDate().getTime());
+        });
+    }
+
+    public static byte[] completed(ProjectTask task) {
+        return encode(out -> {
+            out.writeByte(COMPLETE);
+            out.writeInt(task.getId());
+            writeString(out, task.getCompletedBy());
+            out.writeLong(task.getCompletedDate().getTime());
+        });
+    }
+
+    public static byte[] deleted(ProjectTask task) {
+        return encode(out -> {
+            out.writeByte(DELETE);
+            out.writeInt(task.getId());
+        });
+    }
+
+    // Flushing
+
+    // False once a write has failed for good; the room then refuses changes
+    public boolean isWritable() {
+        return !failed;
+    }
+
+    private void flush() {
+        flushQueued = false;
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Entry> batch = pending;
+        pending = new ArrayList<>();
+        if (!write(batch)) {
+            // Applied in memory but not on disk, so nobody is told of them
+            ServerLog.error("journal.records_lost", "dir", directory, "records", batch.size());
+            return;
+        }
+        for (Entry entry : batch) {
+            entry.onDurable().run();
+        }
+
+        if (recordsSinceSnapshot >= snapshotEvery) {
+            try {
+                writeSnapshot();
+            } catch (IOException e) {
+                ServerLog.error("journal.snapshot_failed", "dir", directory, "error", e.getMessage());
+            }
+        }
+    }
+
+    // A failed write may leave a torn record behind, and replay stops at the
+    // first bad record of a segment, so the batch is retried once at the
+    // start of a fresh segment. If that fails too the journal stops.
+    private boolean write(List<Entry> batch) {
+        for (int attempt = 1; !failed; attempt++) {
+            try {
+                writeBatch(batch);
+                return true;
+            } catch (IOException e) {
+                ServerLog.error("journal.write_failed", "dir", directory, "segment", segmentNumber,
+                        "error", e.getMessage());
+                if (attempt == 2) {
+                    failed = true;
+                    ServerLog.error("journal.stopped", "dir", directory);
+                } else {
+                    abandonSegment();
+                }
+            }
+        }
+        return false;
+    }
+
+    // The next write opens the following segment
+    private void abandonSegment() {
+        closeSegment();
+        segmentNumber++;
+    }
+
+    private void closeSegment() {
+        if (segment != null) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                ServerLog.warn("journal.close_failed", "dir", directory, "error", e.getMessage());
+            }
+            segment = null;
+        }
+    }
+
+    private void writeBatch(List<Entry> batch) throws IOException {
+        int size = 0;
+        for (Entry entry : batch) {
+            size += 8 + entry.record().length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        CRC32 crc = new CRC32();
+        for (Entry entry : batch) {
+            crc.reset();
+            crc.update(entry.record());
+            buffer.putInt(entry.record().length);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(entry.record());
+        }
+        buffer.flip();
+        if (segment == null) {
+            Files.createDirectories(directory);
+            openSegment(segmentNumber);
+        }
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        segment.force(false);
+        recordsSinceSnapshot += batch.size();
+    }
+
+    // Writes the board to a temp file, swaps it in atomically, then starts a
+    // new segment and drops the ones the snapshot now covers
+    private void writeSnapshot() throws IOException {
+        long replayFrom = segmentNumber;
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<ProjectTask> tasks = store.snapshot();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeLong(replayFrom);
+            out.writeInt(store.getNextTaskId());
+            out.writeInt(tasks.size());
+            for (ProjectTask task : tasks) {
+                boolean completed = task.getCompletedDate() != null;
+                out.write(added(task));
+                out.writeBoolean(completed);
+                if (completed) {
+                    out.write(completed(task));
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        segment.close();
+        openSegment(replayFrom + 1);
+        deleteSegmentsBefore(replayFrom);
+        recordsSinceSnapshot = 0;
+        ServerLog.info("journal.snapshot", "dir", directory, "tasks", store.size());
+    }
+
+    // Startup
+
+    private void recover() throws IOException {
+        long firstSegment = 0;
+        Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshotFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+                firstSegment = in.readLong();
+                store.restoreNextTaskId(in.readInt());
+                int count = in.readInt();
+                // Same layout as the log records: type byte and task ID first
+                for (int i = 0; i < count; i++) {
+                    in.readByte();
+                    ProjectTask task = readAdded(in);
+                    store.restore(task);
+                    if (in.readBoolean()) {
+                        in.readByte();
+                        in.readInt();
+                        readCompleted(in, task);
+                    }
+                }
+            }
+        }
+
+        TreeMap<Long, Path> segments = listSegments();
+        long replayed = 0;
+        for (Map.Entry<Long, Path> entry : segments.tailMap(firstSegment).entrySet()) {
+            replayed += replaySegment(entry.getValue());
+        }
+
+        deleteSegmentsBefore(firstSegment);
+        long next = segments.isEmpty() ? firstSegment : Math.max(firstSegment, segments.lastKey() + 1);
+        segmentNumber = next;
+        // Anything replayed from the log is folded into a snapshot soon
+        recordsSinceSnapshot = replayed;
+        ServerLog.info("journal.restored", "dir", directory, "tasks", store.size(), "replayed", replayed);
+    }
+
+    private long replaySegment(Path file) throws IOException {
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    record = in.readNBytes(length);
+                    if (record.length != length) {
+                        break;
+                    }
+                    crc.reset();
+                    crc.update(record);
+                    if ((int) crc.getValue() != checksum) {
+                        ServerLog.warn("journal.corrupt_record", "file", file, "action", "stopped replay of segment");
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break; // torn tail from a crash mid-write
+                }
+                apply(record);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        if (type == ADD) {
+            ProjectTask task = readAdded(in);
+            if (store.get(task.getId()) == null) {
+                store.restore(task);
+            }
+            return;
+        }
+
+        ProjectTask task = store.get(in.readInt());
+        if (task == null) {
+            return; // deleted later in the log, or before the snapshot
+        }
+        if (type == COMPLETE) {
+            readCompleted(in, task);
+        } else if (type == DELETE) {
+            store.delete(task.getId());
+        }
+    }
+
+    private static ProjectTask readAdded(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        String title = readString(in);
+        String description = readString(in);
+        String assignedBy = readString(in);
+        Date createdDate = new Date(in.readLong());
+        return new ProjectTask(id, title, description, assignedBy, createdDate);
+    }
+
+    private static void readCompleted(DataInputStream in, ProjectTask task) throws IOException {
+        String completedBy = readString(in);
+        Date completedDate = new Date(in.readLong());
+        task.complete(completedBy, completedDate);
+    }
+
+    // Segment files
+
+    private void openSegment(long number) throws IOException {
+        segmentNumber = number;
+        segment = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve("wal-" + number + ".log");
+    }
+
+    private TreeMap<Long, Path> listSegments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "wal-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(4, name.length() - 4)), file);
+                } catch (NumberFormatException e) {
+                    ServerLog.warn("journal.unexpected_file", "file", name);
+                }
+            }
+        }
+        return segments;
+    }
+
+    private void deleteSegmentsBefore(long number) throws IOException {
+        for (Map.Entry<Long, Path> entry : listSegments().headMap(number).entrySet()) {
+            Files.deleteIfExists(entry.getValue());
+        }
+    }
+
+    // Encoding helpers
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(RecordWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            writer.write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen in memory
+        }
+        return bytes.toByteArray();
+    }
+
+    // Length-prefixed UTF-8; unlike writeUTF there is no 64 KB limit
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupt journal string length: " + length);
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,3 @@
+public enum TaskStatus {
+    PENDING, COMPLETED, DELETED
+}
@@ -0,0 +1,82 @@
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Server-side task board. Mutations on different tasks proceed in parallel:
+// the map is concurrent, IDs come from an atomic counter and every status
+// change is a CAS on the task itself, so no global lock is involved.
+public class TaskStore {
+    private final Map<Integer, ProjectTask> tasks = new ConcurrentHashMap<>();
+    private final AtomicInteger taskIdCounter = new AtomicInteger(1);
+    
+    public ProjectTask add(String title, String description, String assignedBy) {
+        return add(title, description, assignedBy, task -> {});
+    }
+    
+    // beforeVisible runs before any other thread can see the task, which lets
+    // the journal log the ADD ahead of every later change to it
+    public ProjectTask add(String title, String description, String assignedBy, Consumer<ProjectTask> beforeVisible) {
+        int taskId = taskIdCounter.getAndIncrement();
+        ProjectTask task = new ProjectTask(taskId, title, description, assignedBy);
+        beforeVisible.accept(task);
+        tasks.put(taskId, task);
+        return task;
+    }
+    
+    public ProjectTask get(int taskId) {
+        return tasks.get(taskId);
+    }
+    
+    // Returns the task if this call completed it, null if it was missing,
+    // already completed or deleted concurrently
+    public ProjectTask complete(int taskId, String completedBy) {
+        ProjectTask task = tasks.get(taskId);
+        if (task != null && task.complete(completedBy, new Date())) {
+            return task;
+        }
+        return null;
+    }
+    
+    // Returns the task if this call deleted it
+    public ProjectTask delete(int taskId) {
+        ProjectTask task = tasks.get(taskId);
+        if (task != null && task.markDeleted()) {
+            tasks.remove(taskId, task);
+            return task;
+        }
+        return null;
+    }
+    
+    // Weakly consistent copy; iterating the map never blocks writers
+    public List<ProjectTask> snapshot() {
+        List<ProjectTask> snapshot = new ArrayList<>(tasks.size());
+        for (ProjectTask task : tasks.values()) {
+            if (task.getStatus() != TaskStatus.DELETED) {
+                snapshot.add(task);
+            }
+        }
+        return snapshot;
+    }
+    
+    public int size() {
+        return tasks.size();
+    }
+    
+    public int getNextTaskId() {
+        return taskIdCounter.get();
+    }
+    
+    // Recovery only: reinsert a task read from disk and keep IDs unique
+    public void restore(ProjectTask task) {
+        tasks.put(task.getId(), task);
+        restoreNextTaskId(task.getId() + 1);
+    }
+    
+    public void restoreNextTaskId(int nextTaskId) {
+        taskIdCounter.accumulateAndGet(nextTaskId, Math::max);
+    }
+}
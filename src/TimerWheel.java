@@ -0,0 +1,110 @@
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+// Hashed timer wheel for large numbers of coarse deadlines, such as one
+// heartbeat check per connection.
+//
+// Time is cut into ticks and deadlines hash into a ring of slots by tick, so
+// scheduling and cancelling cost O(1) however many timers are pending, and
+// each tick only looks at one slot. Timers further out than one turn of the
+// wheel wait in their slot until their turn comes round. Callers on any
+// thread hand new timers over through a queue; the slots themselves belong
+// to the wheel's thread, which also runs the expired tasks, so tasks must be
+// short and must not block.
+public final class TimerWheel {
+
+    public static final class Timeout {
+        private final Runnable task;
+        private final long dueNanos;
+        private long deadlineTick; // wheel thread only
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long dueNanos) {
+            this.task = task;
+            this.dueNanos = dueNanos;
+        }
+
+        // Cancelled timers are dropped when the wheel next reaches them
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final ArrayDeque<Timeout>[] slots;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    private long tick; // wheel thread only
+
+    // slotCount is rounded up to a power of two
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(String name, long tickMillis, int slotCount) {
+        this.tickNanos = tickMillis * 1_000_000L;
+        int size = Integer.highestOneBit(Math.max(2, slotCount) * 2 - 1);
+        this.mask = size - 1;
+        this.slots = new ArrayDeque[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Runs task on the wheel's thread once delayMillis have passed, give or
+    // take a tick
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + delayMillis * 1_000_000L);
+        added.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (true) {
+            long nextTickAt = startNanos + (tick + 1) * tickNanos;
+            long sleep = nextTickAt - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(sleep);
+                continue;
+            }
+            tick++;
+            transferAdded();
+            expire(slots[(int) (tick & mask)]);
+        }
+    }
+
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // Round up, so a timer never fires early
+            long due = timeout.dueNanos - startNanos;
+            timeout.deadlineTick = Math.max(tick, (due + tickNanos - 1) / tickNanos);
+            slots[(int) (timeout.deadlineTick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout> slot) {
+        for (int remaining = slot.size(); remaining > 0; remaining--) {
+            Timeout timeout = slot.poll();
+            if (timeout.cancelled) {
+                continue;
+            }
+            if (timeout.deadlineTick > tick) {
+                slot.add(timeout); // a later turn of the wheel
+                continue;
+            }
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                ServerLog.error("timer.task_failed", "error", e.toString());
+            }
+        }
+    }
+}
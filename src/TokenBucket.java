@@ -0,0 +1,41 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lock-free token bucket: refills at a steady rate up to a burst size.
+//
+// Rather than a token count and a refill timestamp, which would have to
+// change together, the whole state is one number: the time at which the
+// bucket would be full again (the "theoretical arrival time" of GCRA). Taking
+// a token pushes it one refill interval further out; a request is refused
+// when that would put it more than a full burst ahead of now. An admitted
+// request costs one CAS and a refused one costs no write at all, so a client
+// hammering its own bucket does not slow anyone else down.
+public final class TokenBucket {
+    private final long intervalNanos; // time to refill one token, 0 = unlimited
+    private final long burstNanos;    // time to refill the whole bucket
+    private final AtomicLong fullAt;
+
+    // ratePerSecond <= 0 means unlimited
+    public TokenBucket(int ratePerSecond, int burst) {
+        this.intervalNanos = ratePerSecond > 0 ? Math.max(1, 1_000_000_000L / ratePerSecond) : 0;
+        this.burstNanos = intervalNanos * Math.max(1, burst);
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    public boolean tryAcquire() {
+        if (intervalNanos == 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            long start = current - now > 0 ? current : now;
+            long next = start + intervalNanos;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Shared codec for the project protocol, used by both ProjectServer and
+// ProjectController.
+//
+// Every connection starts in the line based text protocol. A client that
+// sends "HELLO:BINARY" before logging in gets "HELLO_OK:BINARY" back as the
+// last text line; from then on both sides exchange frames:
+//
+//   varint length | type byte | payload
+//
+// Integers in the payload are varints (sequence numbers and epochs are 64-bit
+// varints), strings are a varint byte length
+// followed by UTF-8. Decoders read straight out of the receive buffer, so a
+// frame costs no copies beyond the strings it carries.
+//
+// Clients that also offer DEFLATE may receive bulk transfers (a board
+// snapshot, a catch-up batch) as one compressed frame wrapping the original
+// frames:
+//
+//   varint length | EVT_COMPRESSED | varint inflated length | zlib stream
+//
+// Each compressed frame is a complete zlib stream on its own, so it can be
+// cached and sent unchanged to every client that needs it.
+public final class WireProtocol {
+    public static final String HELLO = "HELLO:";
+    public static final String HELLO_OK = "HELLO_OK:";
+    public static final String BINARY = "BINARY";
+    public static final String RESUME = "RESUME";
+    public static final String PRESENCE = "PRESENCE";
+    public static final String HEARTBEAT = "HEARTBEAT";
+    public static final String DEFLATE = "DEFLATE";
+    public static final String HISTORY = "HISTORY";
+    public static final String ACK = "ACK";
+
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    // Client -> server
+    public static final byte CMD_USERNAME = 1;
+    public static final byte CMD_ADD_TASK = 2;
+    public static final byte CMD_COMPLETE_TASK = 3;
+    public static final byte CMD_DELETE_TASK = 4;
+    public static final byte CMD_MESSAGE = 5;
+    public static final byte CMD_RESUME = 6;
+    public static final byte CMD_ROOM = 7;
+    public static final byte CMD_GET_USERS = 8;
+    public static final byte CMD_PONG = 9;
+    public static final byte CMD_HISTORY_BEFORE = 10;
+
+    // Server -> client
+    public static final byte EVT_SYSTEM = 64;
+    public static final byte EVT_MESSAGE = 65;
+    public static final byte EVT_USERS = 66;
+    public static final byte EVT_TASK_ADDED = 67;
+    public static final byte EVT_TASK_COMPLETED = 68;
+    public static final byte EVT_TASK_DELETED = 69;
+    public static final byte EVT_SYNC_RESET = 70;
+    public static final byte EVT_SYNC = 71;
+    public static final byte EVT_PRESENCE = 72;
+    public static final byte EVT_USER_JOINED = 73;
+    public static final byte EVT_USER_LEFT = 74;
+    public static final byte EVT_PING = 75;
+    public static final byte EVT_COMPRESSED = 76;
+    public static final byte EVT_HISTORY = 77;
+    public static final byte EVT_ACK = 78;
+
+    // Outcome of a command sent with a request ID. Clients that negotiated
+    // ACK may tag ADD_TASK, COMPLETE_TASK, DELETE_TASK and MESSAGE with an ID
+    // of their choosing ("REQ:<id>|<command>" in text, a trailing varlong in
+    // frames) and get exactly one ACK back per attempt. A retry with the same
+    // ID is never applied twice.
+    public enum AckStatus {
+        OK,        // applied; the result is the task ID, if any
+        DUPLICATE, // applied by an earlier attempt; same result, or 0 if that attempt is still in progress
+        FAILED,    // not applied and retrying will not help, e.g. the task is gone
+        THROTTLED  // not applied because of rate limiting; retry later
+    }
+
+    private WireProtocol() {
+    }
+
+    // Project names, as ROOM accepts them. The app checks them before
+    // joining too, since both sides use them in file names.
+    public static boolean isValidRoomName(String name) {
+        return name.matches("[A-Za-z0-9_-]{1,64}");
+    }
+
+    // Encoding
+
+    // Builds one frame; the length prefix is added by finish()
+    public static final class FrameBuilder {
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+
+        public FrameBuilder(byte type) {
+            body.write(type);
+        }
+
+        public FrameBuilder varint(int value) {
+            writeVarint(body, value);
+            return this;
+        }
+
+        public FrameBuilder varlong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                body.write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            body.write((int) value);
+            return this;
+        }
+
+        public FrameBuilder string(String value) {
+            byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+            writeVarint(body, bytes.length);
+            body.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        public byte[] finish() {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(body.size() + 5);
+            writeVarint(frame, body.size());
+            frame.writeBytes(body.toByteArray());
+            return frame.toByteArray();
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // Decoding from a buffer holding exactly one frame payload
+
+    public static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public static long readVarlong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    // Decodes in place from the buffer's backing array
+    public static String readString(ByteBuffer buffer) {
+        int length = readVarint(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Malformed string length: " + length);
+        }
+        int start = buffer.position();
+        buffer.position(start + length);
+        return new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.UTF_8);
+    }
+
+    // Incremental decoding for non-blocking reads. Returns the payload length
+    // if a whole frame is available at the buffer's position, advancing past
+    // the length prefix; otherwise returns -1 and leaves the position alone.
+    public static int peekFrame(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                buffer.position(start);
+                return -1;
+            }
+            byte b = buffer.get();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (length < 0 || length > MAX_FRAME_LENGTH) {
+                    throw new IllegalArgumentException("Frame too large: " + length);
+                }
+                if (buffer.remaining() < length) {
+                    buffer.position(start);
+                    return -1;
+                }
+                return length;
+            }
+        }
+        throw new IllegalArgumentException("Malformed frame length");
+    }
+
+    // Compression
+
+    // Wraps one or more whole frames in an EVT_COMPRESSED frame. Returns the
+    // frames unchanged if deflating them would not save anything.
+    public static byte[] deflateFrames(byte[] frames, Deflater deflater) {
+        if (frames.length > MAX_FRAME_LENGTH) {
+            return frames; // the client could not accept it inflated
+        }
+        deflater.reset();
+        deflater.setInput(frames);
+        deflater.finish();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(frames.length / 4 + 16);
+        body.write(EVT_COMPRESSED);
+        writeVarint(body, frames.length);
+        byte[] chunk = new byte[4096];
+        while (!deflater.finished()) {
+            body.write(chunk, 0, deflater.deflate(chunk));
+            if (body.size() >= frames.length) {
+                return frames;
+            }
+        }
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(body.size() + 5);
+        writeVarint(frame, body.size());
+        frame.writeBytes(body.toByteArray());
+        return frame.toByteArray();
+    }
+
+    // Inflates an EVT_COMPRESSED payload (the buffer is positioned just past
+    // the type byte) and returns the original frames, length prefixes
+    // included, in a new buffer
+    public static ByteBuffer inflateFrames(ByteBuffer frame, Inflater inflater) {
+        int length = readVarint(frame);
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Compressed frames too large: " + length);
+        }
+        byte[] frames = new byte[length];
+        inflater.reset();
+        inflater.setInput(frame);
+        int filled = 0;
+        try {
+            while (filled < length) {
+                int inflated = inflater.inflate(frames, filled, length - filled);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                filled += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Malformed compressed frame", e);
+        }
+        if (filled != length) {
+            throw new IllegalArgumentException("Truncated compressed frame");
+        }
+        return ByteBuffer.wrap(frames);
+    }
+
+    // Blocking stream helpers
+
+    // Reads one UTF-8 line without buffering past it, so the stream can switch
+    // to frames right after. Returns null at end of stream.
+    public static String readLine(InputStream in, ByteArrayOutputStream scratch) throws IOException {
+        scratch.reset();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            scratch.write(b);
+        }
+        if (b == -1 && scratch.size() == 0) {
+            return null;
+        }
+        String line = scratch.toString(StandardCharsets.UTF_8);
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    // Reads one frame into the reusable buffer (growing it if needed) and
+    // returns the buffer positioned at the type byte with its limit at the
+    // frame end. Returns null at end of stream.
+    public static ByteBuffer readFrame(InputStream in, ByteBuffer reuse) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                if (shift == 0) {
+                    return null;
+                }
+                throw new EOFException("Stream ended inside a frame header");
+            }
+            if (shift >= 35) {
+                throw new IOException("Malformed frame length");
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length <= 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Bad frame length: " + length);
+        }
+
+        ByteBuffer buffer = reuse.capacity() >= length ? reuse : ByteBuffer.allocate(Math.max(length, reuse.capacity() * 2));
+        if (in.readNBytes(buffer.array(), 0, length) != length) {
+            throw new EOFException("Stream ended inside a frame");
+        }
+        buffer.clear().limit(length);
+        return buffer;
+    }
+}